@@ -28,7 +28,7 @@ import org.bukkit.entity.Player;
 public class InternalHelper_v1_10_R1 implements InternalHelper {
 
     @Override
-    public void setResourcePack(Player player, ResourcePack pack) {
-        ((CraftPlayer) player).getHandle().setResourcePack(pack.getUrl(), pack.getHash());
+    public void setResourcePack(Player player, ResourcePack pack, String url) {
+        ((CraftPlayer) player).getHandle().setResourcePack(url, pack.getHash());
     }
 }
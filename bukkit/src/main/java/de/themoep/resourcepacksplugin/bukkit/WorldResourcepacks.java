@@ -24,26 +24,37 @@ import de.themoep.resourcepacksplugin.bukkit.internal.InternalHelper;
 import de.themoep.resourcepacksplugin.bukkit.internal.InternalHelper_fallback;
 import de.themoep.resourcepacksplugin.bukkit.listeners.AuthmeLoginListener;
 import de.themoep.resourcepacksplugin.bukkit.listeners.DisconnectListener;
+import de.themoep.resourcepacksplugin.bukkit.listeners.LoginListener;
 import de.themoep.resourcepacksplugin.bukkit.listeners.ProxyPackListener;
 import de.themoep.resourcepacksplugin.bukkit.listeners.WorldSwitchListener;
+import de.themoep.resourcepacksplugin.core.ConfigSaver;
+import de.themoep.resourcepacksplugin.core.LogStoredPackStore;
 import de.themoep.resourcepacksplugin.core.PackAssignment;
 import de.themoep.resourcepacksplugin.core.PackManager;
+import de.themoep.resourcepacksplugin.core.PackOptimizer;
+import de.themoep.resourcepacksplugin.core.PackWatcher;
+import de.themoep.resourcepacksplugin.core.PlayerSession;
 import de.themoep.resourcepacksplugin.core.ResourcePack;
 import de.themoep.resourcepacksplugin.core.ResourcepacksPlayer;
 import de.themoep.resourcepacksplugin.core.ResourcepacksPlugin;
+import de.themoep.resourcepacksplugin.core.StoredPackStore;
 import de.themoep.resourcepacksplugin.core.UserManager;
+import de.themoep.resourcepacksplugin.core.YamlStoredPackStore;
 import de.themoep.resourcepacksplugin.core.commands.PluginCommandExecutor;
 import de.themoep.resourcepacksplugin.core.commands.ResetPackCommandExecutor;
 import de.themoep.resourcepacksplugin.core.commands.ResourcepacksPluginCommandExecutor;
 import de.themoep.resourcepacksplugin.core.commands.UsePackCommandExecutor;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSelectEvent;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSendEvent;
+import de.themoep.resourcepacksplugin.core.webserver.PackServer;
+import de.themoep.resourcepacksplugin.core.webserver.UrlSigner;
 import de.themoep.utils.lang.LanguageConfig;
 import de.themoep.utils.lang.bukkit.LanguageManager;
 import fr.xephi.authme.api.v3.AuthMeApi;
 import fr.xephi.authme.events.LoginEvent;
 import org.bukkit.ChatColor;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionDefault;
@@ -55,11 +66,17 @@ import protocolsupport.api.ProtocolVersion;
 import us.myles.ViaVersion.ViaVersionPlugin;
 import us.myles.ViaVersion.api.ViaAPI;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 /**
@@ -67,7 +84,9 @@ import java.util.logging.Level;
  */
 public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugin {
 
-    private ConfigAccessor storedPacks;
+    private StoredPackStore storedPacks = null;
+
+    private ConfigSaver configSaver;
 
     private PackManager pm = new PackManager(this);
 
@@ -85,12 +104,14 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
     private boolean protocolSupportApi = false;
     private AuthMeApi authmeApi;
     private ProxyPackListener proxyPackListener;
+    private PackWatcher packWatcher = null;
 
     public void onEnable() {
         boolean firstStart = !getDataFolder().exists();
-        storedPacks = new ConfigAccessor(this, "players.yml");
+        configSaver = new ConfigSaver(this, this::writeConfigChanges, 2000);
         if (loadConfig()) {
             getServer().getPluginManager().registerEvents(new DisconnectListener(this), this);
+            getServer().getPluginManager().registerEvents(new LoginListener(this), this);
             getServer().getPluginManager().registerEvents(new WorldSwitchListener(this), this);
 
             getServer().getMessenger().registerOutgoingPluginChannel(this, "rp:plugin");
@@ -119,7 +140,7 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
                 } else {
                     serverPackFormat = 0;
                 }
-                getLogger().log(getLogLevel(), "Detected server packformat " + serverPackFormat + "!");
+                logDebug(() -> "Detected server packformat " + serverPackFormat + "!");
             } catch(NumberFormatException e) {
                 getLogger().log(Level.WARNING, "Could not get version of the server! (" + versionString + "/" + versionNumberString + ")");
             }
@@ -178,14 +199,71 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
         }
     }
 
+    public void onDisable() {
+        if (packWatcher != null) {
+            packWatcher.stop();
+        }
+        if (getPackManager().getPackServer() != null) {
+            getPackManager().getPackServer().stop();
+        }
+        if (storedPacks != null) {
+            storedPacks.close();
+        }
+        configSaver.close();
+    }
+
     protected void registerCommand(PluginCommandExecutor executor) {
         getCommand(executor.getName()).setExecutor(new ForwardingCommand(executor));
     }
 
+    private void loadStoredPacks() {
+        if (storedPacks != null) {
+            storedPacks.close();
+            storedPacks = null;
+        }
+        File yamlFile = new File(getDataFolder(), "players.yml");
+        try {
+            if ("yaml".equalsIgnoreCase(getConfig().getString("stored-packs.storage", "log"))) {
+                YamlStoredPackStore yamlStore = new YamlStoredPackStore(this, yamlFile,
+                        getConfig().getInt("stored-packs.save-interval", 30), getConfig().getInt("stored-packs.save-threshold", 100));
+                yamlStore.loadAll(readStoredPacks(yamlFile));
+                storedPacks = yamlStore;
+            } else {
+                LogStoredPackStore logStore = new LogStoredPackStore(this, new File(getDataFolder(), "players.db"));
+                if (logStore.isEmpty() && yamlFile.exists()) {
+                    int migrated = logStore.importPacks(readStoredPacks(yamlFile));
+                    Files.move(yamlFile.toPath(), new File(getDataFolder(), "players.yml.migrated").toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    getLogger().log(Level.INFO, "Migrated " + migrated + " stored packs from players.yml to players.db");
+                }
+                storedPacks = logStore;
+            }
+            for (Player player : getServer().getOnlinePlayers()) {
+                storedPacks.loadPlayer(player.getUniqueId());
+            }
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Unable to load stored packs! Stored player packs will not work!", e);
+        }
+    }
+
+    private Map<UUID, String> readStoredPacks(File file) {
+        Map<UUID, String> packs = new HashMap<>();
+        ConfigurationSection players = YamlConfiguration.loadConfiguration(file).getConfigurationSection("players");
+        if (players != null) {
+            for (String key : players.getKeys(false)) {
+                try {
+                    packs.put(UUID.fromString(key), players.getString(key));
+                } catch (IllegalArgumentException e) {
+                    getLogger().log(Level.WARNING, "Invalid player UUID " + key + " in " + file.getName() + "!");
+                }
+            }
+        }
+        return packs;
+    }
+
     public boolean loadConfig() {
         saveDefaultConfig();
         reloadConfig();
-        storedPacks.reloadConfig();
+        loadStoredPacks();
         getLogger().log(Level.INFO, "Loading config!");
         String debugString = getConfig().getString("debug");
         if (debugString.equalsIgnoreCase("true")) {
@@ -204,13 +282,22 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
         lm = new LanguageManager(this, getConfig().getString("default-language"));
 
         getPackManager().init();
+        startPackServer();
         if (getConfig().isSet("packs") && getConfig().isConfigurationSection("packs")) {
-            getLogger().log(getLogLevel(), "Loading packs:");
+            logDebug("Loading packs:");
             ConfigurationSection packs = getConfig().getConfigurationSection("packs");
             for (String s : packs.getKeys(false)) {
                 ConfigurationSection packSection = packs.getConfigurationSection(s);
                 String packName = s.toLowerCase();
                 String packUrl = packSection.getString("url", "");
+                String packFile = packSection.getString("file", "");
+                if (!packFile.isEmpty()) {
+                    if (getPackManager().getPackServer() == null) {
+                        getLogger().log(Level.SEVERE, "Pack " + packName + " has a local file defined but the webserver is not enabled!");
+                        continue;
+                    }
+                    packUrl = getPackManager().getPackServer().getUrl(packFile);
+                }
                 if (packUrl.isEmpty()) {
                     getLogger().log(Level.SEVERE, "Pack " + packName + " does not have an url defined!");
                     continue;
@@ -225,6 +312,9 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
                     ResourcePack pack = new ResourcePack(packName, packUrl, packHash, packFormat, packRestricted, packPerm);
 
                     getPackManager().addPack(pack);
+                    if (!packFile.isEmpty()) {
+                        getPackManager().setPackFile(pack, packFile);
+                    }
                 } catch (IllegalArgumentException e) {
                     getLogger().log(Level.SEVERE, e.getMessage());
                     continue;
@@ -240,7 +330,7 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
                 }
             }
         } else {
-            getLogger().log(getLogLevel(), "No packs defined!");
+            logDebug("No packs defined!");
         }
 
         if (getConfig().isConfigurationSection("empty")) {
@@ -276,6 +366,9 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
                 getLogger().log(Level.WARNING, "No empty pack defined!");
             }
         }
+
+        getPackManager().loadHashCache();
+
         String name = null;
         if (getConfig().isSet("server") && getConfig().isConfigurationSection("server")) {
             name = "server";
@@ -287,9 +380,9 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
             ConfigurationSection globalSection = getConfig().getConfigurationSection(name);
             PackAssignment globalAssignment = getPackManager().loadAssignment(name, getValues(globalSection));
             getPackManager().setGlobalAssignment(globalAssignment);
-            getLogger().log(getLogLevel(), "Loaded " + globalAssignment.toString());
+            logDebug(() -> "Loaded " + globalAssignment.toString());
         } else {
-            getLogger().log(getLogLevel(), "No global server assignment defined!");
+            logDebug("No global server assignment defined!");
         }
 
         if (getConfig().isSet("worlds") && getConfig().isConfigurationSection("worlds")) {
@@ -301,13 +394,13 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
                     getLogger().log(Level.INFO, "Loading assignment for world " + world + "...");
                     PackAssignment worldAssignment = getPackManager().loadAssignment(world, getValues(worldSection));
                     getPackManager().addAssignment(worldAssignment);
-                    getLogger().log(getLogLevel(), "Loaded " + worldAssignment.toString() );
+                    logDebug(() -> "Loaded " + worldAssignment.toString() );
                 } else {
                     getLogger().log(Level.WARNING, "Config has entry for world " + world + " but it is not a configuration section?");
                 }
             }
         } else {
-            getLogger().log(getLogLevel(), "No world assignments defined!");
+            logDebug("No world assignments defined!");
         }
 
         if (getConfig().getBoolean("useauthme", true) && getServer().getPluginManager().getPlugin("AuthMe") != null) {
@@ -316,9 +409,56 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
             LoginEvent.getHandlerList().unregister(this);
             getServer().getPluginManager().registerEvents(new AuthmeLoginListener(this), this);
         }
+
+        getPackManager().buildComposites();
+        startPackWatcher();
         return true;
     }
 
+    private void startPackServer() {
+        if (getPackManager().getPackServer() != null) {
+            getPackManager().getPackServer().stop();
+            getPackManager().setPackServer(null);
+        }
+        getPackManager().setPackOptimizer(null);
+        if (getConfig().getBoolean("webserver.enabled", false)) {
+            PackServer packServer = new PackServer(this,
+                    new File(getDataFolder(), getConfig().getString("webserver.folder", "packs")),
+                    getConfig().getString("webserver.host", "0.0.0.0"),
+                    getConfig().getInt("webserver.port", 8080),
+                    getConfig().getString("webserver.public-url", "http://localhost:8080"),
+                    getConfig().getInt("webserver.cache-size", 128) * 1024L * 1024L
+            );
+            if (getConfig().getBoolean("webserver.signed-urls.enabled", false)) {
+                packServer.setUrlSigner(new UrlSigner(
+                        getConfig().getString("webserver.signed-urls.secret", ""),
+                        getConfig().getInt("webserver.signed-urls.lifetime", 300)
+                ));
+            }
+            try {
+                packServer.start();
+                getPackManager().setPackServer(packServer);
+                if (getConfig().getBoolean("webserver.optimize", false)) {
+                    getPackManager().setPackOptimizer(new PackOptimizer(this));
+                }
+            } catch (IOException e) {
+                getLogger().log(Level.SEVERE, "Unable to start the webserver! " + e.getMessage());
+            }
+        }
+    }
+
+    private void startPackWatcher() {
+        if (packWatcher != null) {
+            packWatcher.stop();
+            packWatcher = null;
+        }
+        if (getConfig().getBoolean("watcher.enabled", false)) {
+            packWatcher = new PackWatcher(this, getConfig().getInt("watcher.interval", 300), getConfig().getInt("watcher.resends-per-second", 5));
+            packWatcher.start();
+            getLogger().log(Level.INFO, "Checking packs for changes every " + packWatcher.getInterval() + " seconds");
+        }
+    }
+
     private Map<String, Object> getValues(ConfigurationSection config) {
         Map<String, Object> map = new LinkedHashMap<>();
         for (String key : config.getKeys(false)) {
@@ -339,6 +479,7 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
      */
     public void reloadConfig(boolean resend) {
         loadConfig();
+        getUserManager().invalidatePermissions();
         getLogger().log(Level.INFO, "Reloaded config.");
         if(isEnabled() && resend) {
             getLogger().log(Level.INFO, "Resending packs for all online players!");
@@ -350,44 +491,76 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
     }
 
     public void saveConfigChanges() {
+        configSaver.requestSave();
+    }
+
+    /**
+     * Write the packs and assignments into the config and save it if anything changed
+     */
+    private void writeConfigChanges() {
+        boolean changed = false;
         for (ResourcePack pack : getPackManager().getPacks()) {
             boolean isEmptyPack = pack.equals(getPackManager().getEmptyPack());
             String path = "packs." + pack.getName();
             if (isEmptyPack && getConfig().isConfigurationSection("empty")) {
                 path = "empty";
             }
-            getConfig().set(path + ".url", pack.getUrl());
-            getConfig().set(path + ".hash", pack.getHash());
-            getConfig().set(path + ".format", !isEmptyPack ? pack.getFormat() : null);
-            getConfig().set(path + ".restricted", !isEmptyPack ? pack.isRestricted() : null);
-            getConfig().set(path + ".permission",!isEmptyPack ? pack.getPermission() : null);
+            changed |= setConfig(path + ".url", pack.getUrl());
+            changed |= setConfig(path + ".hash", pack.getHash());
+            changed |= setConfig(path + ".format", !isEmptyPack ? pack.getFormat() : null);
+            changed |= setConfig(path + ".restricted", !isEmptyPack ? pack.isRestricted() : null);
+            changed |= setConfig(path + ".permission", !isEmptyPack ? pack.getPermission() : null);
         }
-        setConfigFlat(getPackManager().getGlobalAssignment().getName(), getPackManager().getGlobalAssignment().serialize());
+        changed |= setConfigFlat(getPackManager().getGlobalAssignment().getName(), getPackManager().getGlobalAssignment().serialize());
         for (PackAssignment assignment : getPackManager().getAssignments()) {
-            setConfigFlat("worlds." + assignment.getName(), assignment.serialize());
+            changed |= setConfigFlat("worlds." + assignment.getName(), assignment.serialize());
+        }
+        if (changed) {
+            configSaver.write(new File(getDataFolder(), "config.yml"), getConfig().saveToString());
         }
-        saveConfig();
     }
 
-    private void setConfigFlat(String rootKey, Map<String, Object> map) {
+    private boolean setConfigFlat(String rootKey, Map<String, Object> map) {
+        boolean changed = false;
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             if (entry.getValue() instanceof Map) {
-                setConfigFlat(rootKey + "." + entry.getKey(), (Map<String, Object>) entry.getValue());
+                changed |= setConfigFlat(rootKey + "." + entry.getKey(), (Map<String, Object>) entry.getValue());
             } else {
-                getConfig().set(rootKey + "." + entry.getKey(), entry.getValue());
+                changed |= setConfig(rootKey + "." + entry.getKey(), entry.getValue());
             }
         }
+        return changed;
+    }
+
+    /**
+     * Set a value in the config if it differs from the current one
+     * @param path  The path of the value
+     * @param value The new value
+     * @return <tt>true</tt> if the value changed; <tt>false</tt> if not
+     */
+    private boolean setConfig(String path, Object value) {
+        if (Objects.equals(getConfig().get(path, null), value)) {
+            return false;
+        }
+        getConfig().set(path, value);
+        return true;
     }
 
     @Override
     public void setStoredPack(UUID playerId, String packName) {
-        storedPacks.getConfig().set("players." + playerId, packName);
-        storedPacks.saveConfig();
+        if (storedPacks != null) {
+            storedPacks.set(playerId, packName);
+        }
     }
 
     @Override
     public String getStoredPack(UUID playerId) {
-        return storedPacks.getConfig().getString("players." + playerId);
+        return storedPacks != null ? storedPacks.get(playerId) : null;
+    }
+
+    @Override
+    public StoredPackStore getStoredPackStore() {
+        return storedPacks;
     }
 
     @Override
@@ -399,6 +572,21 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
     public int getPermanentPackRemoveTime() {
         return getConfig().getInt("permanent-pack-remove-time");
     }
+
+    @Override
+    public int getPermissionCacheTime() {
+        return getConfig().getInt("permission-cache-time", 10);
+    }
+
+    @Override
+    public int getHashingThreads() {
+        return getConfig().getInt("hashing.threads", 4);
+    }
+
+    @Override
+    public int getHashingHostConnections() {
+        return getConfig().getInt("hashing.connections-per-host", 2);
+    }
     
     public void resendPack(UUID playerId) {
         Player player = getServer().getPlayer(playerId);
@@ -436,12 +624,13 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
      * @param pack The resourcepack to set for the player
      */
     public void sendPack(Player player, ResourcePack pack) {
+        String url = getPackManager().getPackUrl(player.getUniqueId(), pack);
         if (pack.getRawHash().length != 0) {
-            internalHelper.setResourcePack(player, pack);
+            internalHelper.setResourcePack(player, pack, url);
         } else {
-            player.setResourcePack(pack.getUrl());
+            player.setResourcePack(url);
         }
-        getLogger().log(getLogLevel(), "Send pack " + pack.getName() + " (" + pack.getUrl() + ") to " + player.getName());
+        logDebug(() -> "Send pack " + pack.getName() + " (" + url + ") to " + player.getName());
     }
 
     public void clearPack(UUID playerId) {
@@ -566,21 +755,36 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
     public int getPlayerPackFormat(UUID playerId) {
         Player player = getServer().getPlayer(playerId);
         if (player != null) {
-            int format = serverPackFormat;
-            if (viaApi != null) {
-                format = getPackManager().getPackFormat(viaApi.getPlayerVersion(playerId));
-            }
-            if (protocolSupportApi && format == serverPackFormat) { // if still same format test if player is using previous version
-                ProtocolVersion version = ProtocolSupportAPI.getProtocolVersion(player);
-                if (version.getProtocolType() == ProtocolType.PC) {
-                    format = getPackManager().getPackFormat(version.getId());
-                }
+            PlayerSession session = getUserManager().getSession(playerId);
+            int format = session.getPackFormat();
+            if (format == PlayerSession.UNKNOWN_FORMAT) {
+                format = lookupPackFormat(player);
+                session.setPackFormat(format);
             }
             return format;
         }
         return -1;
     }
 
+    /**
+     * Ask the protocol plugins which pack format a player's client supports
+     * @param player    The player
+     * @return The pack format
+     */
+    private int lookupPackFormat(Player player) {
+        int format = serverPackFormat;
+        if (viaApi != null) {
+            format = getPackManager().getPackFormat(viaApi.getPlayerVersion(player.getUniqueId()));
+        }
+        if (protocolSupportApi && format == serverPackFormat) { // if still same format test if player is using previous version
+            ProtocolVersion version = ProtocolSupportAPI.getProtocolVersion(player);
+            if (version.getProtocolType() == ProtocolType.PC) {
+                format = getPackManager().getPackFormat(version.getId());
+            }
+        }
+        return format;
+    }
+
     @Override
     public IResourcePackSelectEvent callPackSelectEvent(UUID playerId, ResourcePack pack, IResourcePackSelectEvent.Status status) {
         ResourcePackSelectEvent selectEvent = new ResourcePackSelectEvent(playerId, pack, status);
@@ -613,6 +817,16 @@ public class WorldResourcepacks extends JavaPlugin implements ResourcepacksPlugi
         return getServer().getScheduler().runTaskAsynchronously(this, runnable).getTaskId();
     }
 
+    @Override
+    public int runAsyncTaskTimer(Runnable runnable, long delay, long period, TimeUnit unit) {
+        return getServer().getScheduler().runTaskTimerAsynchronously(this, runnable, unit.toMillis(delay) / 50, unit.toMillis(period) / 50).getTaskId();
+    }
+
+    @Override
+    public void cancelTask(int taskId) {
+        getServer().getScheduler().cancelTask(taskId);
+    }
+
     /**
      * Get the listener that listens on the "rp:plugin" channel to register new sub channels
      * @return  The ProxyPackListener
@@ -26,6 +26,16 @@ import org.bukkit.entity.Player;
  */
 public interface InternalHelper {
 
-    void setResourcePack(Player player, ResourcePack pack);
+    default void setResourcePack(Player player, ResourcePack pack) {
+        setResourcePack(player, pack, pack.getUrl());
+    }
+
+    /**
+     * Send a resource pack to a player
+     * @param player    The player to send the pack to
+     * @param pack      The pack to send
+     * @param url       The url the player should download the pack from, can differ from the pack's url
+     */
+    void setResourcePack(Player player, ResourcePack pack, String url);
 
 }
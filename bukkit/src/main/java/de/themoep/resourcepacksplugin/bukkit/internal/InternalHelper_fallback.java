@@ -61,19 +61,19 @@ public class InternalHelper_fallback implements InternalHelper {
     }
 
     @Override
-    public void setResourcePack(Player player, ResourcePack pack) {
+    public void setResourcePack(Player player, ResourcePack pack, String url) {
         if (hasSetResourcePack) {
-            player.setResourcePack(pack.getUrl(), pack.getRawHash());
+            player.setResourcePack(url, pack.getRawHash());
             return;
         }
 
         try {
             if (setPackWithHashMethod != null) {
-                setPackWithHashMethod.invoke(player, pack.getUrl(), pack.getRawHash());
+                setPackWithHashMethod.invoke(player, url, pack.getRawHash());
                 return;
             } else if (getHandle != null && setResourcePack != null) {
                 Object entityPlayer = getHandle.invoke(player);
-                setResourcePack.invoke(entityPlayer, pack.getUrl(), pack.getHash());
+                setResourcePack.invoke(entityPlayer, url, pack.getHash());
                 return;
             }
         } catch (InvocationTargetException e) {
@@ -81,6 +81,6 @@ public class InternalHelper_fallback implements InternalHelper {
         } catch (IllegalAccessException e) {
             // not allowed to access it?
         }
-        player.setResourcePack(pack.getUrl());
+        player.setResourcePack(url);
     }
 }
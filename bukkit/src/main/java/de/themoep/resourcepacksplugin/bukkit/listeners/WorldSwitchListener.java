@@ -41,11 +41,15 @@ public class WorldSwitchListener implements Listener {
 
     @EventHandler
     public void onWorldSwitch(PlayerChangedWorldEvent event) {
+        plugin.setPermissionContext(event.getPlayer().getUniqueId(), event.getPlayer().getWorld().getName());
         handleEvent(event.getPlayer());
     }
 
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
+        plugin.getUserManager().onConnect(event.getPlayer().getUniqueId());
+        plugin.setPermissionContext(event.getPlayer().getUniqueId(), event.getPlayer().getWorld().getName());
+        plugin.getPlayerPackFormat(event.getPlayer().getUniqueId()); // Look up the client's format once for the whole session
         handleEvent(event.getPlayer());
     }
 
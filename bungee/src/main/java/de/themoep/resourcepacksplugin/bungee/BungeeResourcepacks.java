@@ -25,21 +25,32 @@ import de.themoep.resourcepacksplugin.bungee.events.ResourcePackSelectEvent;
 import de.themoep.resourcepacksplugin.bungee.events.ResourcePackSendEvent;
 import de.themoep.resourcepacksplugin.bungee.listeners.PluginMessageListener;
 import de.themoep.resourcepacksplugin.bungee.listeners.DisconnectListener;
+import de.themoep.resourcepacksplugin.bungee.listeners.LoginListener;
 import de.themoep.resourcepacksplugin.bungee.listeners.ServerSwitchListener;
 import de.themoep.resourcepacksplugin.bungee.packets.IdMapping;
+import de.themoep.resourcepacksplugin.bungee.packets.ResourcePackSendCache;
 import de.themoep.resourcepacksplugin.bungee.packets.ResourcePackSendPacket;
+import de.themoep.resourcepacksplugin.core.ConfigSaver;
+import de.themoep.resourcepacksplugin.core.LogStoredPackStore;
 import de.themoep.resourcepacksplugin.core.PackAssignment;
 import de.themoep.resourcepacksplugin.core.PackManager;
+import de.themoep.resourcepacksplugin.core.PackOptimizer;
+import de.themoep.resourcepacksplugin.core.PackWatcher;
+import de.themoep.resourcepacksplugin.core.PlayerSession;
 import de.themoep.resourcepacksplugin.core.ResourcePack;
 import de.themoep.resourcepacksplugin.core.ResourcepacksPlayer;
 import de.themoep.resourcepacksplugin.core.ResourcepacksPlugin;
+import de.themoep.resourcepacksplugin.core.StoredPackStore;
 import de.themoep.resourcepacksplugin.core.UserManager;
+import de.themoep.resourcepacksplugin.core.YamlStoredPackStore;
 import de.themoep.resourcepacksplugin.core.commands.PluginCommandExecutor;
 import de.themoep.resourcepacksplugin.core.commands.ResetPackCommandExecutor;
 import de.themoep.resourcepacksplugin.core.commands.ResourcepacksPluginCommandExecutor;
 import de.themoep.resourcepacksplugin.core.commands.UsePackCommandExecutor;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSelectEvent;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSendEvent;
+import de.themoep.resourcepacksplugin.core.webserver.PackServer;
+import de.themoep.resourcepacksplugin.core.webserver.UrlSigner;
 import de.themoep.utils.lang.LanguageConfig;
 import de.themoep.utils.lang.bungee.LanguageManager;
 import net.md_5.bungee.api.ChatColor;
@@ -47,6 +58,8 @@ import net.md_5.bungee.api.chat.TextComponent;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.config.Configuration;
+import net.md_5.bungee.config.ConfigurationProvider;
+import net.md_5.bungee.config.YamlConfiguration;
 import net.md_5.bungee.protocol.BadPacketException;
 import net.md_5.bungee.protocol.DefinedPacket;
 import net.md_5.bungee.protocol.Protocol;
@@ -58,19 +71,23 @@ import us.myles.ViaVersion.api.platform.ViaPlatform;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
@@ -88,7 +105,16 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
     
     private FileConfiguration config;
 
-    private FileConfiguration storedPacks;
+    /**
+     * Guards swapping the config on reload and writing it to the disk
+     */
+    private final Object configLock = new Object();
+
+    private StoredPackStore storedPacks = null;
+
+    private ConfigSaver configSaver;
+
+    private final ResourcePackSendCache packetCache = new ResourcePackSendCache();
     
     private PackManager pm = new PackManager(this);
 
@@ -116,12 +142,15 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
 
     private int bungeeVersion;
 
+    private PackWatcher packWatcher = null;
+
     private ViaAPI viaApi;
 
     public void onEnable() {
         instance = this;
 
         boolean firstStart = !getDataFolder().exists();
+        configSaver = new ConfigSaver(this, this::writeConfigChanges, 2000);
 
         if (!loadConfig()) {
             return;
@@ -151,6 +180,7 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
         um = new UserManager(this);
 
         getProxy().getPluginManager().registerListener(this, new DisconnectListener(this));
+        getProxy().getPluginManager().registerListener(this, new LoginListener(this));
         getProxy().getPluginManager().registerListener(this, new ServerSwitchListener(this));
         getProxy().getPluginManager().registerListener(this, new PluginMessageListener(this));
         getProxy().registerChannel("rp:plugin");
@@ -165,6 +195,61 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
         }
     }
 
+    public void onDisable() {
+        if (packWatcher != null) {
+            packWatcher.stop();
+        }
+        if (getPackManager().getPackServer() != null) {
+            getPackManager().getPackServer().stop();
+        }
+        if (storedPacks != null) {
+            storedPacks.close();
+        }
+        configSaver.close();
+    }
+
+    private void loadStoredPacks() {
+        if (storedPacks != null) {
+            storedPacks.close();
+            storedPacks = null;
+        }
+        File yamlFile = new File(getDataFolder(), "players.yml");
+        try {
+            if ("yaml".equalsIgnoreCase(getConfig().getString("stored-packs.storage", "log"))) {
+                YamlStoredPackStore yamlStore = new YamlStoredPackStore(this, yamlFile,
+                        getConfig().getInt("stored-packs.save-interval", 30), getConfig().getInt("stored-packs.save-threshold", 100));
+                yamlStore.loadAll(readStoredPacks(yamlFile));
+                storedPacks = yamlStore;
+            } else {
+                LogStoredPackStore logStore = new LogStoredPackStore(this, new File(getDataFolder(), "players.db"));
+                if (logStore.isEmpty() && yamlFile.exists()) {
+                    int migrated = logStore.importPacks(readStoredPacks(yamlFile));
+                    Files.move(yamlFile.toPath(), new File(getDataFolder(), "players.yml.migrated").toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    getLogger().log(Level.INFO, "Migrated " + migrated + " stored packs from players.yml to players.db");
+                }
+                storedPacks = logStore;
+            }
+            for (ProxiedPlayer player : getProxy().getPlayers()) {
+                storedPacks.loadPlayer(player.getUniqueId());
+            }
+        } catch (IOException e) {
+            getLogger().log(Level.SEVERE, "Unable to load stored packs! Stored player packs will not work!", e);
+        }
+    }
+
+    private Map<UUID, String> readStoredPacks(File file) throws IOException {
+        Map<UUID, String> packs = new HashMap<>();
+        Configuration players = new FileConfiguration(this, file).getSection("players");
+        for (String key : players.getKeys()) {
+            try {
+                packs.put(UUID.fromString(key), players.getString(key));
+            } catch (IllegalArgumentException e) {
+                getLogger().log(Level.WARNING, "Invalid player UUID " + key + " in " + file.getName() + "!");
+            }
+        }
+        return packs;
+    }
+
     protected boolean registerPacket(Protocol protocol, String directionName, Class<? extends DefinedPacket> packetClass) {
         try {
             Field directionField;
@@ -194,10 +279,10 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
             }
             List<IdMapping> idMappings = (List<IdMapping>) field.get(null);
 
-            getLogger().log(getLogLevel(), "Registering " + packetClass.getSimpleName() + "...");
+            logDebug(() -> "Registering " + packetClass.getSimpleName() + "...");
             bungeeVersion = supportedVersions.get(supportedVersions.size() - 1);
             if (bungeeVersion == ProtocolConstants.MINECRAFT_1_8) {
-                getLogger().log(getLogLevel(), "BungeeCord 1.8 (" + bungeeVersion + ") detected!");
+                logDebug(() -> "BungeeCord 1.8 (" + bungeeVersion + ") detected!");
                 Method reg = direction.getClass().getDeclaredMethod("registerPacket", int.class, Class.class);
                 reg.setAccessible(true);
                 int id = -1;
@@ -213,7 +298,7 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
                 }
                 reg.invoke(direction, id, packetClass);
             } else if (bungeeVersion >= ProtocolConstants.MINECRAFT_1_9 && bungeeVersion < ProtocolConstants.MINECRAFT_1_9_4) {
-                getLogger().log(getLogLevel(), "BungeeCord 1.9-1.9.3 (" + bungeeVersion + ") detected!");
+                logDebug(() -> "BungeeCord 1.9-1.9.3 (" + bungeeVersion + ") detected!");
                 Method reg = direction.getClass().getDeclaredMethod("registerPacket", int.class, int.class, Class.class);
                 reg.setAccessible(true);
                 int id18 = -1;
@@ -231,7 +316,7 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
                 }
                 reg.invoke(direction, id18, id19, packetClass);
             } else if (bungeeVersion >= ProtocolConstants.MINECRAFT_1_9_4) {
-                getLogger().log(getLogLevel(), "BungeeCord 1.9.4+ (" + bungeeVersion + ") detected!");
+                logDebug(() -> "BungeeCord 1.9.4+ (" + bungeeVersion + ") detected!");
                 Method map = Protocol.class.getDeclaredMethod("map", int.class, int.class);
                 map.setAccessible(true);
                 Map<String, Object> mappings = new LinkedHashMap<>();
@@ -252,7 +337,7 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
                 for (IdMapping mapping : additionalMappings) {
                     for (int id : ProtocolConstants.SUPPORTED_VERSION_IDS) {
                         if (!registeredVersions.contains(id) && id > mapping.getProtocolVersion()) {
-                            getLogger().log(getLogLevel(), "Using unregistered mapping " + mapping.getName() + "/" + mapping.getProtocolVersion() + " for unregistered version " + id);
+                            logDebug(() -> "Using unregistered mapping " + mapping.getName() + "/" + mapping.getProtocolVersion() + " for unregistered version " + id);
                             mappings.put(mapping.getName(), map.invoke(null, id, mapping.getPacketId()));
                             registeredVersions.add(id);
                             break;
@@ -265,7 +350,7 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
                 for (Iterator<Map.Entry<String, Object>> it = mappings.entrySet().iterator(); it.hasNext() ; i++) {
                     Map.Entry<String, Object> entry = it.next();
                     Array.set(mappingsObject, i, entry.getValue());
-                    getLogger().log(getLogLevel(), "Found mapping for " + entry.getKey() + "+");
+                    logDebug(() -> "Found mapping for " + entry.getKey() + "+");
                 }
                 Object[] mappingsArray = (Object[]) mappingsObject;
                 Method reg = direction.getClass().getDeclaredMethod("registerPacket", Class.class, mappingsArray.getClass());
@@ -297,18 +382,17 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
 
     public boolean loadConfig() {
         try {
-            config = new FileConfiguration(this, new File(getDataFolder(), "config.yml"), "bungee-config.yml");
+            synchronized (configLock) {
+                config = new FileConfiguration(this, new File(getDataFolder(), "config.yml"), "bungee-config.yml");
+            }
             getLogger().log(Level.INFO, "Loading config!");
         } catch (IOException e) {
             getLogger().log(Level.SEVERE, "Unable to load configuration! " + getDescription().getName() + " will not be enabled!", e);
             return false;
         }
 
-        try {
-            storedPacks = new FileConfiguration(this, new File(getDataFolder(), "players.yml"));
-        } catch (IOException e) {
-            getLogger().log(Level.SEVERE, "Unable to load players.yml! Stored player packs will not work!", e);
-        }
+        loadStoredPacks();
+        packetCache.clear();
 
         String debugString = getConfig().getString("debug");
         if (debugString.equalsIgnoreCase("true")) {
@@ -331,6 +415,7 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
         lm = new LanguageManager(this, getConfig().getString("default-language"));
 
         getPackManager().init();
+        startPackServer();
         if (getConfig().isSet("packs", true) && getConfig().isSection("packs")) {
             getLogger().log(Level.INFO, "Loading packs:");
             Configuration packs = getConfig().getSection("packs");
@@ -339,6 +424,14 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
 
                 String packName = s.toLowerCase();
                 String packUrl = packSection.getString("url", "");
+                String packFile = packSection.getString("file", "");
+                if (!packFile.isEmpty()) {
+                    if (getPackManager().getPackServer() == null) {
+                        getLogger().log(Level.SEVERE, "Pack " + packName + " has a local file defined but the webserver is not enabled!");
+                        continue;
+                    }
+                    packUrl = getPackManager().getPackServer().getUrl(packFile);
+                }
                 if (packUrl.isEmpty()) {
                     getLogger().log(Level.SEVERE, "Pack " + packName + " does not have an url defined!");
                     continue;
@@ -353,12 +446,15 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
                     ResourcePack pack = new ResourcePack(packName, packUrl, packHash, packFormat, packRestricted, packPerm);
 
                     getPackManager().addPack(pack);
+                    if (!packFile.isEmpty()) {
+                        getPackManager().setPackFile(pack, packFile);
+                    }
                 } catch (IllegalArgumentException e) {
                     getLogger().log(Level.SEVERE, e.getMessage());
                 }
             }
         } else {
-            getLogger().log(getLogLevel(), "No packs defined!");
+            logDebug("No packs defined!");
         }
 
         if (getConfig().isSection("empty")) {
@@ -394,14 +490,16 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
             }
         }
 
+        getPackManager().loadHashCache();
+
         if (getConfig().isSet("global", true) && getConfig().isSection("global")) {
             getLogger().log(Level.INFO, "Loading global assignment...");
             Configuration globalSection = getConfig().getSection("global");
             PackAssignment globalAssignment = getPackManager().loadAssignment("global", getValues(globalSection));
             getPackManager().setGlobalAssignment(globalAssignment);
-            getLogger().log(getLogLevel(), "Loaded " + globalAssignment.toString());
+            logDebug(() -> "Loaded " + globalAssignment.toString());
         } else {
-            getLogger().log(getLogLevel(), "No global assignment defined!");
+            logDebug("No global assignment defined!");
         }
 
         if (getConfig().isSet("servers", true) && getConfig().isSection("servers")) {
@@ -413,17 +511,67 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
                     getLogger().log(Level.INFO, "Loading assignment for server " + server + "...");
                     PackAssignment serverAssignment = getPackManager().loadAssignment(server, getValues(serverSection));
                     getPackManager().addAssignment(serverAssignment);
-                    getLogger().log(getLogLevel(), "Loaded server assignment " + serverAssignment.toString());
+                    logDebug(() -> "Loaded server assignment " + serverAssignment.toString());
                 } else {
                     getLogger().log(Level.WARNING, "Config has entry for server " + server + " but it is not a configuration section?");
                 }
             }
         } else {
-            getLogger().log(getLogLevel(), "No server assignments defined!");
+            logDebug("No server assignments defined!");
         }
+
+        getPackManager().buildComposites();
+        startPackWatcher();
         return true;
     }
 
+    private void startPackServer() {
+        if (getPackManager().getPackServer() != null) {
+            getPackManager().getPackServer().stop();
+            getPackManager().setPackServer(null);
+        }
+        getPackManager().setPackOptimizer(null);
+        if (getConfig().isSection("webserver")) {
+            Configuration section = getConfig().getSection("webserver");
+            if (section.getBoolean("enabled", false)) {
+                PackServer packServer = new PackServer(this,
+                        new File(getDataFolder(), section.getString("folder", "packs")),
+                        section.getString("host", "0.0.0.0"),
+                        section.getInt("port", 8080),
+                        section.getString("public-url", "http://localhost:8080"),
+                        section.getInt("cache-size", 128) * 1024L * 1024L
+                );
+                if (section.getBoolean("signed-urls.enabled", false)) {
+                    packServer.setUrlSigner(new UrlSigner(
+                            section.getString("signed-urls.secret", ""),
+                            section.getInt("signed-urls.lifetime", 300)
+                    ));
+                }
+                try {
+                    packServer.start();
+                    getPackManager().setPackServer(packServer);
+                    if (section.getBoolean("optimize", false)) {
+                        getPackManager().setPackOptimizer(new PackOptimizer(this));
+                    }
+                } catch (IOException e) {
+                    getLogger().log(Level.SEVERE, "Unable to start the webserver! " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void startPackWatcher() {
+        if (packWatcher != null) {
+            packWatcher.stop();
+            packWatcher = null;
+        }
+        if (getConfig().getBoolean("watcher.enabled", false)) {
+            packWatcher = new PackWatcher(this, getConfig().getInt("watcher.interval", 300), getConfig().getInt("watcher.resends-per-second", 5));
+            packWatcher.start();
+            getLogger().log(Level.INFO, "Checking packs for changes every " + packWatcher.getInterval() + " seconds");
+        }
+    }
+
     private Map<String, Object> getValues(Configuration config) {
         Map<String, Object> map = new LinkedHashMap<>();
         for (String key : config.getKeys()) {
@@ -443,6 +591,7 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
      */
     public void reloadConfig(boolean resend) {
         loadConfig();
+        getUserManager().invalidatePermissions();
         getLogger().log(Level.INFO, "Reloaded config.");
         if(isEnabled() && resend) {
             getLogger().log(Level.INFO, "Resending packs for all online players!");
@@ -454,46 +603,95 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
     }
 
     public void saveConfigChanges() {
-        for (ResourcePack pack : getPackManager().getPacks()) {
-            boolean isEmptyPack = pack.equals(getPackManager().getEmptyPack());
-            String path = "packs." + pack.getName();
-            if (isEmptyPack && getConfig().isSection("empty")) {
-                path = "empty";
+        configSaver.requestSave();
+    }
+
+    /**
+     * Write the packs and assignments into the config and save it if anything changed.
+     * Holds the config lock so that a reload can't swap the config while it is written.
+     */
+    private void writeConfigChanges() {
+        synchronized (configLock) {
+            boolean changed = false;
+            for (ResourcePack pack : getPackManager().getPacks()) {
+                boolean isEmptyPack = pack.equals(getPackManager().getEmptyPack());
+                String path = "packs." + pack.getName();
+                if (isEmptyPack && getConfig().isSection("empty")) {
+                    path = "empty";
+                }
+                changed |= setConfig(path + ".url", pack.getUrl());
+                changed |= setConfig(path + ".hash", pack.getHash());
+                changed |= setConfig(path + ".format", !isEmptyPack ? pack.getFormat() : null);
+                changed |= setConfig(path + ".restricted", !isEmptyPack ? pack.isRestricted() : null);
+                changed |= setConfig(path + ".permission", !isEmptyPack ? pack.getPermission() : null);
+            }
+            changed |= setConfigFlat(getPackManager().getGlobalAssignment().getName(), getPackManager().getGlobalAssignment().serialize());
+            for (PackAssignment assignment : getPackManager().getAssignments()) {
+                changed |= setConfigFlat("servers." + assignment.getName(), assignment.serialize());
+            }
+            if (changed) {
+                configSaver.writeNow(new File(getDataFolder(), "config.yml"), saveConfigToString());
             }
-            getConfig().set(path + ".url", pack.getUrl());
-            getConfig().set(path + ".hash", pack.getHash());
-            getConfig().set(path + ".format", !isEmptyPack ? pack.getFormat() : null);
-            getConfig().set(path + ".restricted", !isEmptyPack ? pack.isRestricted() : null);
-            getConfig().set(path + ".permission",!isEmptyPack ? pack.getPermission() : null);
         }
-        setConfigFlat(getPackManager().getGlobalAssignment().getName(), getPackManager().getGlobalAssignment().serialize());
-        for (PackAssignment assignment : getPackManager().getAssignments()) {
-            setConfigFlat("servers." + assignment.getName(), assignment.serialize());
+    }
+
+    /**
+     * Serialize the current config into a YAML string
+     * @return The YAML representation of the config
+     */
+    private String saveConfigToString() {
+        Configuration root = new Configuration();
+        for (String key : getConfig().getKeys()) {
+            root.set(key, getConfig().get(key));
         }
-        getConfig().saveConfig();
+        StringWriter writer = new StringWriter();
+        ConfigurationProvider.getProvider(YamlConfiguration.class).save(root, writer);
+        return writer.toString();
     }
 
-    private void setConfigFlat(String rootKey, Map<String, Object> map) {
+    private boolean setConfigFlat(String rootKey, Map<String, Object> map) {
+        boolean changed = false;
         for (Map.Entry<String, Object> entry : map.entrySet()) {
             if (entry.getValue() instanceof Map) {
-                setConfigFlat(rootKey + "." + entry.getKey(), (Map<String, Object>) entry.getValue());
+                changed |= setConfigFlat(rootKey + "." + entry.getKey(), (Map<String, Object>) entry.getValue());
             } else {
-                getConfig().set(rootKey + "." + entry.getKey(), entry.getValue());
+                changed |= setConfig(rootKey + "." + entry.getKey(), entry.getValue());
             }
         }
+        return changed;
+    }
+
+    /**
+     * Set a value in the config if it differs from the current one
+     * @param path  The path of the value
+     * @param value The new value
+     * @return <tt>true</tt> if the value changed; <tt>false</tt> if not
+     */
+    private boolean setConfig(String path, Object value) {
+        int lastDot = path.lastIndexOf('.');
+        Configuration section = getConfig().getSection(path.substring(0, lastDot));
+        if (Objects.equals(section.get(path.substring(lastDot + 1)), value)) {
+            return false;
+        }
+        getConfig().set(path, value);
+        return true;
     }
 
     @Override
     public void setStoredPack(UUID playerId, String packName) {
         if (storedPacks != null) {
-            storedPacks.set("players." + playerId, packName);
-            storedPacks.saveConfig();
+            storedPacks.set(playerId, packName);
         }
     }
 
     @Override
     public String getStoredPack(UUID playerId) {
-        return storedPacks != null ? storedPacks.getString("players." + playerId.toString()) : null;
+        return storedPacks != null ? storedPacks.get(playerId) : null;
+    }
+
+    @Override
+    public StoredPackStore getStoredPackStore() {
+        return storedPacks;
     }
 
     @Override
@@ -505,6 +703,21 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
     public int getPermanentPackRemoveTime() {
         return getConfig().getInt("permanent-pack-remove-time");
     }
+
+    @Override
+    public int getPermissionCacheTime() {
+        return getConfig().getInt("permission-cache-time", 10);
+    }
+
+    @Override
+    public int getHashingThreads() {
+        return getConfig().getInt("hashing.threads", 4);
+    }
+
+    @Override
+    public int getHashingHostConnections() {
+        return getConfig().getInt("hashing.connections-per-host", 2);
+    }
     
     public static BungeeResourcepacks getInstance() {
         return instance;
@@ -558,10 +771,11 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
         int clientVersion = player.getPendingConnection().getVersion();
         if(clientVersion >= ProtocolConstants.MINECRAFT_1_8) {
             try {
-                ResourcePackSendPacket packet = new ResourcePackSendPacket(pack.getUrl(), pack.getHash());
+                String url = getPackManager().getPackUrl(player.getUniqueId(), pack);
+                ResourcePackSendPacket packet = packetCache.get(pack, url);
                 player.unsafe().sendPacket(packet);
                 sendPackInfo(player, pack);
-                getLogger().log(getLogLevel(), "Send pack " + pack.getName() + " (" + pack.getUrl() + ") to " + player.getName());
+                logDebug(() -> "Send pack " + pack.getName() + " (" + url + ") to " + player.getName());
             } catch(BadPacketException e) {
                 getLogger().log(Level.SEVERE, e.getMessage() + " Please check for updates!");
             } catch(ClassCastException e) {
@@ -767,15 +981,33 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
 
     @Override
     public int getPlayerPackFormat(UUID playerId) {
-        if (viaApi != null) {
-            return getPackManager().getPackFormat(viaApi.getPlayerVersion(playerId));
+        ProxiedPlayer proxiedPlayer = getProxy().getPlayer(playerId);
+        if (proxiedPlayer == null) {
+            return viaApi != null ? getPackManager().getPackFormat(viaApi.getPlayerVersion(playerId)) : -1;
         }
+        PlayerSession session = getUserManager().getSession(playerId);
+        int format = session.getPackFormat();
+        if (format == PlayerSession.UNKNOWN_FORMAT) {
+            if (viaApi != null) {
+                format = getPackManager().getPackFormat(viaApi.getPlayerVersion(playerId));
+            } else {
+                format = getPackManager().getPackFormat(proxiedPlayer.getPendingConnection().getVersion());
+            }
+            session.setPackFormat(format);
+        }
+        return format;
+    }
 
-        ProxiedPlayer proxiedPlayer = getProxy().getPlayer(playerId);
-        if (proxiedPlayer != null) {
-            return getPackManager().getPackFormat(proxiedPlayer.getPendingConnection().getVersion());
+    /**
+     * Store the pack format of a player who is logging in in the player's session.
+     * Does nothing if ViaVersion is installed as it only knows the version once the player is connected.
+     * @param playerId          The UUID of the player
+     * @param protocolVersion   The protocol version of the player's connection
+     */
+    public void prefetchPackFormat(UUID playerId, int protocolVersion) {
+        if (viaApi == null) {
+            getUserManager().getSession(playerId).setPackFormat(getPackManager().getPackFormat(protocolVersion));
         }
-        return -1;
     }
 
     @Override
@@ -807,6 +1039,16 @@ public class BungeeResourcepacks extends Plugin implements ResourcepacksPlugin {
         return getProxy().getScheduler().runAsync(this, runnable).getId();
     }
 
+    @Override
+    public int runAsyncTaskTimer(Runnable runnable, long delay, long period, TimeUnit unit) {
+        return getProxy().getScheduler().schedule(this, runnable, delay, period, unit).getId();
+    }
+
+    @Override
+    public void cancelTask(int taskId) {
+        getProxy().getScheduler().cancel(taskId);
+    }
+
     public void setAuthenticated(UUID playerId, boolean b) {
         if(b) {
             authenticatedPlayers.add(playerId);
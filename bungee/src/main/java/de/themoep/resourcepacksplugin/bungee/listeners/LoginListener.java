@@ -0,0 +1,69 @@
+package de.themoep.resourcepacksplugin.bungee.listeners;
+
+/*
+ * ResourcepacksPlugins - bungee
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.themoep.resourcepacksplugin.bungee.BungeeResourcepacks;
+import net.md_5.bungee.api.event.LoginEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.event.EventPriority;
+
+import java.util.UUID;
+
+public class LoginListener implements Listener {
+
+    private final BungeeResourcepacks plugin;
+
+    public LoginListener(BungeeResourcepacks plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onLogin(LoginEvent event) {
+        if (!plugin.isEnabled() || event.isCancelled()) {
+            return;
+        }
+        UUID playerId = event.getConnection().getUniqueId();
+        int protocolVersion = event.getConnection().getVersion();
+        event.registerIntent(plugin);
+        plugin.getProxy().getScheduler().runAsync(plugin, () -> {
+            try {
+                plugin.getUserManager().prefetch(playerId);
+                plugin.prefetchPackFormat(playerId, protocolVersion);
+                if (event.isCancelled()) {
+                    // Denied by another plugin in the meantime, the user manager also discards it
+                    // if the login gets denied later or the player disconnects before joining
+                    plugin.getUserManager().discardPrefetch(playerId);
+                }
+            } finally {
+                event.completeIntent(plugin);
+            }
+        });
+    }
+
+    @EventHandler
+    public void onPostLogin(PostLoginEvent event) {
+        if (plugin.isEnabled()) {
+            plugin.getUserManager().onConnect(event.getPlayer().getUniqueId());
+            // Look up the client's format once for the whole session
+            plugin.getPlayerPackFormat(event.getPlayer().getUniqueId());
+        }
+    }
+}
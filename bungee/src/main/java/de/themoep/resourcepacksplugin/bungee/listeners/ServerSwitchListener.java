@@ -44,6 +44,9 @@ public class ServerSwitchListener implements Listener {
         if(plugin.isEnabled()) {
             final UUID playerId = event.getPlayer().getUniqueId();
             plugin.unsetBackend(playerId);
+            if (event.getPlayer().getServer() != null) {
+                plugin.setPermissionContext(playerId, event.getPlayer().getServer().getInfo().getName());
+            }
 
             ResourcePack pack = plugin.getUserManager().getUserPack(playerId);
             plugin.sendPackInfo(event.getPlayer(), pack);
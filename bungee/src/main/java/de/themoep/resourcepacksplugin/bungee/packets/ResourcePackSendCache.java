@@ -0,0 +1,78 @@
+package de.themoep.resourcepacksplugin.bungee.packets;
+
+/*
+ * ResourcepacksPlugins - bungee
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.themoep.resourcepacksplugin.core.ResourcePack;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps an already encoded ResourcePackSend packet for every pack so that the url and hash only have to be
+ * encoded once when a pack gets sent to a lot of players. The packet body is the same for all protocol versions,
+ * the packet id gets written by BungeeCord's encoder.
+ */
+public class ResourcePackSendCache {
+
+    /**
+     * packname -> cached packet
+     */
+    private final Map<String, CachedPacket> packets = new ConcurrentHashMap<>();
+
+    /**
+     * Get the packet to send a pack with
+     * @param pack  The pack to send
+     * @param url   The url the pack should be downloaded from, packets with a url that differs
+     *              from the pack's one (e.g. signed urls) don't get cached
+     * @return The packet to send
+     */
+    public ResourcePackSendPacket get(ResourcePack pack, String url) {
+        String hash = pack.getHash();
+        if (!url.equals(pack.getUrl())) {
+            return new ResourcePackSendPacket(url, hash);
+        }
+        CachedPacket cached = packets.get(pack.getName());
+        if (cached == null || !cached.url.equals(url) || !cached.hash.equals(hash)) {
+            ResourcePackSendPacket packet = new ResourcePackSendPacket(url, hash);
+            packet = new ResourcePackSendPacket(packet.getUrl(), packet.getHash(), packet.encode());
+            cached = new CachedPacket(url, hash, packet);
+            packets.put(pack.getName(), cached);
+        }
+        return cached.packet;
+    }
+
+    /**
+     * Remove all cached packets, e.g. when the packs got reloaded
+     */
+    public void clear() {
+        packets.clear();
+    }
+
+    private static class CachedPacket {
+        private final String url;
+        private final String hash;
+        private final ResourcePackSendPacket packet;
+
+        private CachedPacket(String url, String hash, ResourcePackSendPacket packet) {
+            this.url = url;
+            this.hash = hash;
+            this.packet = packet;
+        }
+    }
+}
@@ -32,8 +32,9 @@ import net.md_5.bungee.protocol.PacketWrapper;
 import net.md_5.bungee.protocol.ProtocolConstants;
 
 import java.beans.ConstructorProperties;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
@@ -46,6 +47,11 @@ public class ResourcePackSendPacket extends DefinedPacket {
     private String url;
     private String hash;
 
+    /**
+     * The already encoded url and hash, null if they should get encoded when the packet is written
+     */
+    private byte[] encoded = null;
+
     public final static List<IdMapping> ID_MAPPINGS = Arrays.asList(
             new IdMapping("1.8", ProtocolConstants.MINECRAFT_1_8, 0x48),
             new IdMapping("1.9", ProtocolConstants.MINECRAFT_1_9, 0x32),
@@ -57,15 +63,21 @@ public class ResourcePackSendPacket extends DefinedPacket {
 
     public ResourcePackSendPacket() {};
 
-    private static Field conField = null;
+    /**
+     * Getter for the UserConnection field of the DownstreamBridge, null if it couldn't be found
+     */
+    private static final MethodHandle CON_GETTER;
 
     static {
+        MethodHandle conGetter = null;
         try {
-            conField = DownstreamBridge.class.getDeclaredField("con");
+            Field conField = DownstreamBridge.class.getDeclaredField("con");
             conField.setAccessible(true);
-        } catch (NoSuchFieldException e) {
+            conGetter = MethodHandles.lookup().unreflectGetter(conField);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
             BungeeResourcepacks.getInstance().getLogger().log(Level.SEVERE, "Error while trying to get the UserConnection field from the DownstreamBridge object. Is the plugin up to date?");
         }
+        CON_GETTER = conGetter;
     }
 
     @ConstructorProperties({"url", "hash"})
@@ -78,17 +90,48 @@ public class ResourcePackSendPacket extends DefinedPacket {
         }
     }
 
+    /**
+     * Create a packet whose url and hash were already encoded with {@link #encode()}
+     * @param url       The url of the pack
+     * @param hash      The lowercase hash of the pack
+     * @param encoded   The encoded url and hash, the array is never modified and can be shared between packets
+     */
+    ResourcePackSendPacket(String url, String hash, byte[] encoded) {
+        this.url = url;
+        this.hash = hash;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Encode the url and hash of this packet so that they can be written without encoding them again
+     * @return The encoded url and hash
+     */
+    byte[] encode() {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            writeString(this.url, buf);
+            writeString(this.hash, buf);
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+            return bytes;
+        } finally {
+            buf.release();
+        }
+    }
+
     @Override
     public void handle(AbstractPacketHandler handler) throws Exception {
         if(handler instanceof DownstreamBridge) {
-            if (conField != null) {
-                DownstreamBridge bridge = (DownstreamBridge) handler;
+            if (CON_GETTER != null) {
+                UserConnection usercon;
                 try {
-                    relayPacket((UserConnection) conField.get(bridge), new PacketWrapper(this, Unpooled.copiedBuffer(ByteBuffer.allocate(Integer.toString(this.getUrl().length()).length()))));
-                } catch (IllegalAccessException e) {
-                    BungeeResourcepacks.getInstance().getLogger().log(Level.WARNING, "Sorry but you are not allowed to do this.");
-                    e.printStackTrace();
+                    usercon = (UserConnection) CON_GETTER.invoke((DownstreamBridge) handler);
+                } catch (Throwable e) {
+                    BungeeResourcepacks.getInstance().getLogger().log(Level.WARNING, "Error while trying to get the UserConnection from the DownstreamBridge!", e);
+                    return;
                 }
+                // The wrapper's buffer is never read, the actual packet gets relayed by the DownstreamBridge
+                relayPacket(usercon, new PacketWrapper(this, Unpooled.EMPTY_BUFFER));
             }
         } else {
             throw new UnsupportedOperationException("Only players can receive ResourcePackSend packets!");
@@ -112,8 +155,9 @@ public class ResourcePackSendPacket extends DefinedPacket {
                 }
             }
             plugin.setBackend(usercon.getUniqueId());
-            plugin.getLogger().log(BungeeResourcepacks.getInstance().getLogLevel(), "Backend mc server send pack " + pack.getName() + " (" + pack.getUrl() + ") to player " + usercon.getName());
-            plugin.getUserManager().setUserPack(usercon.getUniqueId(), pack);
+            ResourcePack appliedPack = pack;
+            plugin.logDebug(() -> "Backend mc server send pack " + appliedPack.getName() + " (" + appliedPack.getUrl() + ") to player " + usercon.getName());
+            plugin.getUserManager().setUserPack(usercon.getUniqueId(), appliedPack);
         }
         usercon.getPendingConnection().handle(packet);
     }
@@ -126,6 +170,10 @@ public class ResourcePackSendPacket extends DefinedPacket {
     }
 
     public void write(ByteBuf buf) {
+        if (encoded != null) {
+            buf.writeBytes(encoded);
+            return;
+        }
         writeString(this.url, buf);
         writeString(this.hash, buf);
     }
@@ -140,9 +188,11 @@ public class ResourcePackSendPacket extends DefinedPacket {
 
     public void setUrl(String url) {
         this.url = url;
+        this.encoded = null;
     }
 
     public void setHash(String hash) {
+        this.encoded = null;
         if(hash != null) {
             this.hash = hash.substring(0, 39).toLowerCase();
         } else {
@@ -0,0 +1,110 @@
+package de.themoep.resourcepacksplugin.bungee.packets;
+
+/*
+ * ResourcepacksPlugins - bungee
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import io.netty.buffer.Unpooled;
+import net.md_5.bungee.protocol.PacketWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how {@link ResourcePackSendPacket#handle} used to get the connection and wrap the packet
+ * (reflective field access and a copied buffer) with the current way (a cached method handle and the shared empty buffer).
+ * A DownstreamBridge can't be created without a running proxy so the field access uses a class with the same kind of field.
+ * Run it with <tt>mvn test-compile</tt> and <tt>java -cp &lt;test classpath&gt; org.openjdk.jmh.Main ResourcePackSendPacketBenchmark -prof gc</tt>
+ * to also see the allocations per relayed packet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourcePackSendPacketBenchmark {
+
+    private static final Field CON_FIELD;
+    private static final MethodHandle CON_GETTER;
+
+    static {
+        try {
+            CON_FIELD = Bridge.class.getDeclaredField("con");
+            CON_FIELD.setAccessible(true);
+            CON_GETTER = MethodHandles.lookup().unreflectGetter(CON_FIELD);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Bridge bridge = new Bridge();
+
+    private final ResourcePackSendPacket packet = new ResourcePackSendPacket(
+            "http://localhost:8080/packs/lobby.zip", "0123456789abcdef0123456789abcdef01234567");
+
+    @Benchmark
+    public Object reflectiveField() throws IllegalAccessException {
+        return CON_FIELD.get(bridge);
+    }
+
+    @Benchmark
+    public Object methodHandle() throws Throwable {
+        return CON_GETTER.invoke(bridge);
+    }
+
+    @Benchmark
+    public PacketWrapper copiedBuffer() {
+        return new PacketWrapper(packet, Unpooled.copiedBuffer(ByteBuffer.allocate(Integer.toString(packet.getUrl().length()).length())));
+    }
+
+    @Benchmark
+    public PacketWrapper emptyBuffer() {
+        return new PacketWrapper(packet, Unpooled.EMPTY_BUFFER);
+    }
+
+    @Benchmark
+    public PacketWrapper previousRelay() throws IllegalAccessException {
+        CON_FIELD.get(bridge);
+        return new PacketWrapper(packet, Unpooled.copiedBuffer(ByteBuffer.allocate(Integer.toString(packet.getUrl().length()).length())));
+    }
+
+    @Benchmark
+    public PacketWrapper currentRelay() throws Throwable {
+        CON_GETTER.invoke(bridge);
+        return new PacketWrapper(packet, Unpooled.EMPTY_BUFFER);
+    }
+
+    /**
+     * Stands in for the DownstreamBridge and its private connection field
+     */
+    private static class Bridge {
+        private final Object con = new Object();
+    }
+}
@@ -0,0 +1,119 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches a name against the regexes of multiple assignments in a single pass.
+ * All regexes are combined into one alternation in which each regex is wrapped in its own group,
+ * the first alternative that matches the whole name wins just like when checking them one by one.
+ * If the regexes can't be combined (numeric back references, compile flags, quotes, comments or conflicting group names)
+ * then they are checked one by one instead.
+ */
+class AssignmentMatcher {
+
+    private static final Pattern NUMERIC_BACK_REFERENCE = Pattern.compile("(?<!\\\\)(?:\\\\\\\\)*\\\\[1-9]");
+
+    private final List<PackAssignment> assignments;
+    private final Pattern combined;
+
+    /**
+     * The index of the group of each assignment in the combined pattern
+     */
+    private final int[] groups;
+
+    /**
+     * Create a matcher for some regex assignments
+     * @param assignments   The assignments in the order in which they should be checked. All of them need to have a regex.
+     */
+    AssignmentMatcher(Collection<PackAssignment> assignments) {
+        this.assignments = new ArrayList<>(assignments);
+        this.groups = new int[this.assignments.size()];
+
+        StringBuilder sb = new StringBuilder();
+        boolean combinable = true;
+        int group = 1;
+        for (int i = 0; i < this.assignments.size() && combinable; i++) {
+            Pattern regex = this.assignments.get(i).getRegex();
+            // Flags that were set when compiling can't be applied to only a part of the combined pattern and
+            // an unterminated quote or comment would swallow the closing parenthesis of the regex's group
+            if (regex.flags() != Pattern.compile(regex.pattern()).flags()
+                    || NUMERIC_BACK_REFERENCE.matcher(regex.pattern()).find()
+                    || regex.pattern().contains("\\Q") || regex.pattern().contains("#")) {
+                combinable = false;
+            }
+            if (i > 0) {
+                sb.append('|');
+            }
+            sb.append('(').append(regex.pattern()).append(')');
+            groups[i] = group;
+            group += 1 + regex.matcher("").groupCount();
+        }
+
+        Pattern combined = null;
+        if (combinable && !this.assignments.isEmpty()) {
+            try {
+                combined = Pattern.compile(sb.toString());
+            } catch (PatternSyntaxException e) {
+                // Probably the same group name in multiple regexes, check them one by one instead
+            }
+        }
+        this.combined = combined;
+    }
+
+    /**
+     * Get the first assignment whose regex matches a name
+     * @param name  The name of the server/world
+     * @return The matching assignment or <tt>null</tt> if none matches
+     */
+    PackAssignment match(String name) {
+        if (combined == null) {
+            for (PackAssignment assignment : assignments) {
+                if (assignment.getRegex().matcher(name).matches()) {
+                    return assignment;
+                }
+            }
+            return null;
+        }
+
+        Matcher matcher = combined.matcher(name);
+        if (matcher.matches()) {
+            for (int i = 0; i < groups.length; i++) {
+                if (matcher.start(groups[i]) != -1) {
+                    return assignments.get(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether or not the regexes got combined into a single pattern
+     * @return <tt>true</tt> if they are matched in a single pass; <tt>false</tt> if they get checked one by one
+     */
+    boolean isCombined() {
+        return combined != null;
+    }
+}
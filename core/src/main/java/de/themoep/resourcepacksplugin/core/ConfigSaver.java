@@ -0,0 +1,142 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Delays saving the config so that multiple changes in a short time only get saved once.
+ * The actual save runs as a task of the plugin as it needs to access the config,
+ * files can then be written on the saver's own thread.
+ */
+public class ConfigSaver {
+
+    private final ResourcepacksPlugin plugin;
+    private final Runnable save;
+    private final long delay;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Whether or not there are changes that weren't saved yet
+     */
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    /**
+     * Whether or not a save is scheduled on the saver's thread
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Create a new config saver
+     * @param plugin    The plugin
+     * @param save      Saves the config, gets run with {@link ResourcepacksPlugin#runTask(Runnable)}
+     * @param delay     How long to wait for further changes before saving in milliseconds
+     */
+    public ConfigSaver(ResourcepacksPlugin plugin, Runnable save, long delay) {
+        this.plugin = plugin;
+        this.save = save;
+        this.delay = delay;
+        this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " Config Saver")
+                .setDaemon(true)
+                .build());
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Save the config after the delay unless a save is already scheduled
+     */
+    public void requestSave() {
+        pending.set(true);
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(() -> {
+                    scheduled.set(false);
+                    plugin.runTask(this::savePending);
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Already closed, close() saves the config
+            }
+        }
+    }
+
+    private void savePending() {
+        if (pending.getAndSet(false)) {
+            save.run();
+        }
+    }
+
+    /**
+     * Write the content of a file on the saver's thread. The file is first written to a temporary file
+     * which then gets moved to the actual location so that it never is left half written.
+     * @param file      The file to write
+     * @param content   The content of the file
+     */
+    public void write(File file, String content) {
+        try {
+            executor.execute(() -> writeQuietly(file, content));
+        } catch (RejectedExecutionException e) {
+            writeQuietly(file, content);
+        }
+    }
+
+    /**
+     * Write the content of a file directly on the calling thread. Like {@link #write(File, String)}
+     * this goes through a temporary file so that the file is never left half written.
+     * @param file      The file to write
+     * @param content   The content of the file
+     */
+    public void writeNow(File file, String content) {
+        writeQuietly(file, content);
+    }
+
+    private void writeQuietly(File file, String content) {
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.write(temp.toPath(), content.getBytes(Charsets.UTF_8));
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not save " + file, e);
+        }
+    }
+
+    /**
+     * Stop the saver. Changes that weren't saved yet get saved directly on the calling thread.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        savePending();
+    }
+}
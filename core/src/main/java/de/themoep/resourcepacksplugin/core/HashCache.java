@@ -0,0 +1,191 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent cache of the hashes of pack files and the validators of the download they were generated from
+ */
+public class HashCache {
+
+    private final File file;
+
+    /**
+     * url -> cache entry
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new hash cache
+     * @param file  The file to store the cache in
+     */
+    public HashCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the cache from its file, this will drop all entries that are currently in memory
+     * @throws IOException When the file could not be read
+     */
+    public void load() throws IOException {
+        entries.clear();
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 5 || parts[4].length() != 40) {
+                    continue;
+                }
+                try {
+                    entries.put(parts[0], new Entry(
+                            parts[1].isEmpty() ? null : parts[1],
+                            parts[2].isEmpty() ? null : parts[2],
+                            Long.parseLong(parts[3]),
+                            BaseEncoding.base16().lowerCase().decode(parts[4])
+                    ));
+                } catch (IllegalArgumentException ignored) {} // Broken entry, will be regenerated
+            }
+        }
+    }
+
+    /**
+     * Save the cache to its file. The file is first written to a temporary file
+     * which then gets moved to the actual location so that it never is left half written.
+     * Saves from different threads run one after another as they share the temporary file.
+     * @throws IOException When the file could not be written
+     */
+    public synchronized void save() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create folder " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), Charsets.UTF_8)) {
+            writer.write("# url\tetag\tlast-modified\tsize\tsha1");
+            writer.newLine();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                writer.write(e.getKey());
+                writer.write('\t');
+                writer.write(e.getValue().getEtag() != null ? e.getValue().getEtag() : "");
+                writer.write('\t');
+                writer.write(e.getValue().getLastModified() != null ? e.getValue().getLastModified() : "");
+                writer.write('\t');
+                writer.write(String.valueOf(e.getValue().getSize()));
+                writer.write('\t');
+                writer.write(BaseEncoding.base16().lowerCase().encode(e.getValue().getHash()));
+                writer.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the cached entry of a url
+     * @param url   The url of the pack
+     * @return The cached entry or <tt>null</tt> if there is none
+     */
+    public Entry get(String url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Cache the hash and validators of a pack
+     * @param pack  The pack to cache
+     */
+    public void put(ResourcePack pack) {
+        if (containsInvalid(pack.getUrl()) || containsInvalid(pack.getEtag()) || containsInvalid(pack.getLastModified())) {
+            return;
+        }
+        entries.put(pack.getUrl(), new Entry(pack.getEtag(), pack.getLastModified(), pack.getContentLength(), pack.getRawHash()));
+    }
+
+    /**
+     * Remove the cached entry of a url
+     * @param url   The url of the pack
+     * @return The entry that was removed or <tt>null</tt> if there was none
+     */
+    public Entry remove(String url) {
+        return entries.remove(url);
+    }
+
+    private static boolean containsInvalid(String value) {
+        return value != null && (value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0);
+    }
+
+    public static class Entry {
+        private final String etag;
+        private final String lastModified;
+        private final long size;
+        private final byte[] hash;
+
+        private Entry(String etag, String lastModified, long size, byte[] hash) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.hash = hash;
+        }
+
+        /**
+         * Check whether or not the validators of a response match this entry
+         * @param etag          The ETag of the response
+         * @param lastModified  The Last-Modified value of the response
+         * @param size          The size of the response's content
+         * @return <tt>true</tt> if at least one validator and the size match; <tt>false</tt> if not
+         */
+        public boolean matches(String etag, String lastModified, long size) {
+            if (size != this.size) {
+                return false;
+            }
+            return etag != null && etag.equals(this.etag) || lastModified != null && lastModified.equals(this.lastModified);
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public byte[] getHash() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+
+/**
+ * Stores the packs of players in an append-only log file. Every change appends a record with the player's UUID
+ * and pack name, only the position of each player's latest record is kept in memory. The pack names of connected
+ * players get loaded when they connect, other players are read from the file when they are requested.
+ * Changes are kept in memory and appended to the file in the background.
+ * When the file contains more outdated than current records it gets compacted on startup and shutdown.
+ * <p>
+ * The position index still grows with the amount of stored players, it uses about 48 bytes per player
+ * (e.g. 48 MB for a million players) as it only stores the UUIDs and positions in primitive arrays.
+ */
+public class LogStoredPackStore implements StoredPackStore {
+
+    private static final int MAGIC = 0x52505350; // RPSP
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * uuid (16 bytes) + length of the pack name (2 bytes)
+     */
+    private static final int RECORD_HEADER_SIZE = 18;
+
+    /**
+     * Marks a loaded player who has no stored pack or a pending removal
+     */
+    private static final String NONE = "";
+
+    private final ResourcepacksPlugin plugin;
+    private final File file;
+    private FileChannel data;
+
+    /**
+     * Guards the index, the outdated counter and replacing the file when compacting
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * playerid -> position of the player's latest record
+     */
+    private PositionIndex index = new PositionIndex();
+
+    /**
+     * playerid -> packname of connected players
+     */
+    private final Map<UUID, String> loaded = new ConcurrentHashMap<>();
+
+    /**
+     * playerid -> packname of changes that weren't written to the file yet
+     */
+    private final Map<UUID, String> pending = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of records that were replaced by newer ones
+     */
+    private int outdated = 0;
+
+    private final ExecutorService writer;
+
+    /**
+     * Open a store, the file will be created if it doesn't exist yet
+     * @param plugin    The plugin
+     * @param file      The file to store the packs in
+     * @throws IOException When the file could not be read or isn't a valid store
+     */
+    public LogStoredPackStore(ResourcepacksPlugin plugin, File file) throws IOException {
+        this.plugin = plugin;
+        this.file = file;
+        open();
+        if (outdated > index.size()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Could not compact " + file, e);
+            }
+        }
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " Stored Packs Writer")
+                .setDaemon(true)
+                .build());
+    }
+
+    private void open() throws IOException {
+        if (!file.exists()) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Could not create folder " + parent);
+            }
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+        }
+
+        index = new PositionIndex();
+        outdated = 0;
+        long position = HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a stored packs file of this version!");
+            }
+            while (true) {
+                UUID playerId;
+                int length;
+                try {
+                    playerId = new UUID(in.readLong(), in.readLong());
+                    length = in.readUnsignedShort();
+                    in.readFully(new byte[length]);
+                } catch (EOFException e) {
+                    break;
+                }
+                long previous = length > 0 ? index.put(playerId, position) : index.remove(playerId);
+                if (previous != 0) {
+                    outdated++;
+                }
+                if (length == 0) {
+                    outdated++;
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+
+        data = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (data.size() > position) {
+            plugin.getLogger().log(Level.WARNING, "Removed incomplete record at the end of " + file);
+            data.truncate(position);
+        }
+    }
+
+    /**
+     * Check whether or not this store contains any packs
+     * @return <tt>true</tt> if there are no stored packs
+     */
+    public boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return index.size() == 0 && pending.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the pack that a player has stored. If the player isn't loaded then the record is read from the file,
+     * this reads a single record and doesn't wait for changes that are being written.
+     * @param playerId  The UUID of the player
+     * @return The name of the stored pack or <tt>null</tt> if the player has none
+     */
+    @Override
+    public String get(UUID playerId) {
+        String packName = pending.get(playerId);
+        if (packName == null) {
+            packName = loaded.get(playerId);
+        }
+        if (packName != null) {
+            return packName.isEmpty() ? null : packName;
+        }
+        try {
+            return read(playerId);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not read stored pack of " + playerId + " from " + file, e);
+            return null;
+        }
+    }
+
+    private String read(UUID playerId) throws IOException {
+        lock.readLock().lock();
+        try {
+            long position = index.get(playerId);
+            if (position == 0) {
+                return null;
+            }
+            ByteBuffer length = ByteBuffer.allocate(2);
+            readFully(position + RECORD_HEADER_SIZE - 2, length);
+            ByteBuffer name = ByteBuffer.allocate(length.getShort(0) & 0xFFFF);
+            readFully(position + RECORD_HEADER_SIZE, name);
+            return new String(name.array(), Charsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void readFully(long position, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (data.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Record at " + position + " is incomplete");
+            }
+        }
+    }
+
+    /**
+     * Set the pack that a player has stored. The change is visible directly and gets written to the file in the background.
+     * @param playerId  The UUID of the player
+     * @param packName  The name of the pack or <tt>null</tt> to remove it
+     */
+    @Override
+    public void set(UUID playerId, String packName) {
+        if (packName == null) {
+            packName = NONE;
+        }
+        if (packName.getBytes(Charsets.UTF_8).length > 0xFFFF) {
+            throw new IllegalArgumentException("Pack name of " + playerId + " is too long!");
+        }
+        String current = pending.get(playerId);
+        if (current == null) {
+            current = loaded.get(playerId);
+        }
+        if (packName.equals(current)) {
+            return;
+        }
+        pending.put(playerId, packName);
+        loaded.replace(playerId, packName);
+        try {
+            writer.execute(this::writePending);
+        } catch (RejectedExecutionException e) {
+            writePending(); // Already closed
+        }
+    }
+
+    /**
+     * Append the pending changes to the file
+     */
+    private synchronized void writePending() {
+        for (Map.Entry<UUID, String> entry : pending.entrySet()) {
+            UUID playerId = entry.getKey();
+            String packName = entry.getValue();
+            try {
+                write(playerId, packName);
+                pending.remove(playerId, packName); // Keep it if it changed again in the meantime
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not write stored pack of " + playerId + " to " + file, e);
+                return;
+            }
+        }
+    }
+
+    private void write(UUID playerId, String packName) throws IOException {
+        byte[] name = packName.getBytes(Charsets.UTF_8);
+        if (name.length == 0) {
+            lock.readLock().lock();
+            try {
+                if (index.get(playerId) == 0) {
+                    return; // Nothing to remove
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        // Only this method appends so the end of the file can't change until the index is updated
+        long position = data.size();
+        ByteBuffer record = ByteBuffer.wrap(record(playerId, name));
+        while (record.hasRemaining()) {
+            data.write(record, position + record.position());
+        }
+        lock.writeLock().lock();
+        try {
+            long previous = name.length > 0 ? index.put(playerId, position) : index.remove(playerId);
+            if (previous != 0) {
+                outdated++;
+            }
+            if (name.length == 0) {
+                outdated++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add packs from another source, e.g. when migrating from the players.yml
+     * @param packs The packs to add, playerid -> packname
+     * @return The amount of packs that were added
+     * @throws IOException When the packs could not be written
+     */
+    public synchronized int importPacks(Map<UUID, String> packs) throws IOException {
+        int count = 0;
+        lock.writeLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            long position = data.size();
+            for (Map.Entry<UUID, String> entry : packs.entrySet()) {
+                if (entry.getValue() == null || entry.getValue().isEmpty()) {
+                    continue;
+                }
+                byte[] name = entry.getValue().getBytes(Charsets.UTF_8);
+                if (name.length > 0xFFFF) {
+                    continue;
+                }
+                out.write(record(entry.getKey(), name));
+                if (index.put(entry.getKey(), position) != 0) {
+                    outdated++;
+                }
+                loaded.replace(entry.getKey(), entry.getValue());
+                position += RECORD_HEADER_SIZE + name.length;
+                count++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return count;
+    }
+
+    private static byte[] record(UUID playerId, byte[] name) {
+        return ByteBuffer.allocate(RECORD_HEADER_SIZE + name.length)
+                .putLong(playerId.getMostSignificantBits())
+                .putLong(playerId.getLeastSignificantBits())
+                .putShort((short) name.length)
+                .put(name)
+                .array();
+    }
+
+    @Override
+    public void loadPlayer(UUID playerId) {
+        if (loaded.containsKey(playerId)) {
+            return;
+        }
+        try {
+            String packName = pending.get(playerId);
+            if (packName == null) {
+                packName = read(playerId);
+            }
+            loaded.put(playerId, packName != null ? packName : NONE);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not read stored pack of " + playerId + " from " + file, e);
+        }
+    }
+
+    @Override
+    public void unloadPlayer(UUID playerId) {
+        loaded.remove(playerId);
+    }
+
+    /**
+     * Rewrite the file so that it only contains the latest record of every player.
+     * The new file gets written to a temporary file first which then replaces the old one.
+     * @throws IOException When the file could not be written
+     */
+    public synchronized void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            long[] positions = index.positions();
+            Arrays.sort(positions); // Read the old file from start to end
+
+            File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+            PositionIndex newIndex = new PositionIndex();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                long newPosition = HEADER_SIZE;
+                for (long position : positions) {
+                    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+                    readFully(position, header);
+                    ByteBuffer name = ByteBuffer.allocate(header.getShort(16) & 0xFFFF);
+                    readFully(position + RECORD_HEADER_SIZE, name);
+                    out.write(header.array());
+                    out.write(name.array());
+                    newIndex.put(new UUID(header.getLong(0), header.getLong(8)), newPosition);
+                    newPosition += RECORD_HEADER_SIZE + name.capacity();
+                }
+            }
+            data.close();
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                index = newIndex;
+                outdated = 0;
+            } finally {
+                data = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write all pending changes and flush them to the disk
+     * @throws IOException When the file could not be synced
+     */
+    @Override
+    public synchronized void save() throws IOException {
+        writePending();
+        data.force(false);
+    }
+
+    /**
+     * Stop the background writer, write all pending changes and compact the file if necessary
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            writePending();
+            try {
+                if (outdated > index.size()) {
+                    compact();
+                }
+                data.close();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not close " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Maps UUIDs to file positions using primitive arrays with open addressing instead of boxed map entries.
+     * A position of <tt>0</tt> marks an empty slot as no record can start inside the file header.
+     */
+    private static class PositionIndex {
+        private long[] most = new long[16];
+        private long[] least = new long[16];
+        private long[] positions = new long[16];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        private int slot(long most, long least) {
+            long hash = most ^ least;
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            int mask = positions.length - 1;
+            int slot = (int) hash & mask;
+            while (positions[slot] != 0 && (this.most[slot] != most || this.least[slot] != least)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * @return The position or <tt>0</tt> if the player has none
+         */
+        long get(UUID playerId) {
+            return positions[slot(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits())];
+        }
+
+        /**
+         * @return The previous position or <tt>0</tt> if the player had none
+         */
+        long put(UUID playerId, long position) {
+            int slot = slot(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits());
+            long previous = positions[slot];
+            if (previous == 0) {
+                most[slot] = playerId.getMostSignificantBits();
+                least[slot] = playerId.getLeastSignificantBits();
+                size++;
+            }
+            positions[slot] = position;
+            if (previous == 0 && size * 2 > positions.length) {
+                resize();
+            }
+            return previous;
+        }
+
+        /**
+         * @return The removed position or <tt>0</tt> if the player had none
+         */
+        long remove(UUID playerId) {
+            int slot = slot(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits());
+            long previous = positions[slot];
+            if (previous == 0) {
+                return 0;
+            }
+            positions[slot] = 0;
+            size--;
+            // Move following entries of the same probe sequence back so that lookups don't stop early
+            int mask = positions.length - 1;
+            int next = (slot + 1) & mask;
+            while (positions[next] != 0) {
+                long movedMost = most[next];
+                long movedLeast = least[next];
+                long movedPosition = positions[next];
+                positions[next] = 0;
+                int target = slot(movedMost, movedLeast);
+                most[target] = movedMost;
+                least[target] = movedLeast;
+                positions[target] = movedPosition;
+                next = (next + 1) & mask;
+            }
+            return previous;
+        }
+
+        private void resize() {
+            long[] oldMost = most;
+            long[] oldLeast = least;
+            long[] oldPositions = positions;
+            most = new long[oldPositions.length * 2];
+            least = new long[oldPositions.length * 2];
+            positions = new long[oldPositions.length * 2];
+            for (int i = 0; i < oldPositions.length; i++) {
+                if (oldPositions[i] != 0) {
+                    int slot = slot(oldMost[i], oldLeast[i]);
+                    most[slot] = oldMost[i];
+                    least[slot] = oldLeast[i];
+                    positions[slot] = oldPositions[i];
+                }
+            }
+        }
+
+        /**
+         * @return The positions of all records in the index
+         */
+        long[] positions() {
+            long[] result = new long[size];
+            int i = 0;
+            for (long position : positions) {
+                if (position != 0) {
+                    result[i++] = position;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -37,6 +37,7 @@ public class PackAssignment {
     private LinkedHashSet<String> secondaries = new LinkedHashSet<>();
     private long sendDelay = -1;
     private Pattern regex = null;
+    private boolean compose = false;
     private final String name;
 
     public PackAssignment(String name) {
@@ -49,6 +50,7 @@ public class PackAssignment {
         this.secondaries = assignment.getSecondaries();
         this.sendDelay = assignment.getSendDelay();
         this.regex = assignment.getRegex();
+        this.compose = assignment.isCompose();
     }
 
     /**
@@ -154,7 +156,7 @@ public class PackAssignment {
      * @return  <tt>true</tt> if it has no packs or secondaries; <tt>false</tt> if it has some
      */
     public boolean isEmpty() {
-        return pack == null && secondaries.isEmpty() && sendDelay == -1;
+        return pack == null && secondaries.isEmpty() && sendDelay == -1 && !compose;
     }
 
     /**
@@ -178,13 +180,36 @@ public class PackAssignment {
         return sendDelay;
     }
 
+    /**
+     * Set whether or not the packs of this assignment should be merged into a single pack
+     * @param compose   Whether or not to merge the packs
+     * @return          Whether or not the value changed
+     */
+    public boolean setCompose(boolean compose) {
+        if (this.compose != compose) {
+            this.compose = compose;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check whether or not the packs of this assignment should be merged into a single pack.
+     * Only packs served by the built-in webserver can be merged.
+     * @return  <tt>true</tt> if the main and secondary packs get merged; <tt>false</tt> if only one of them gets sent
+     */
+    public boolean isCompose() {
+        return compose;
+    }
+
     @Override
     public String toString() {
         StringBuilder s = new StringBuilder(getClass().getSimpleName()).append("{")
                 .append("name=").append(getName())
                 .append(", pack=").append(getPack())
                 .append(", secondaries=[").append(getSecondaries().stream().collect(Collectors.joining(", ")))
-                .append("], sendDelay=").append(getSendDelay());
+                .append("], sendDelay=").append(getSendDelay())
+                .append(", compose=").append(isCompose());
         if (getRegex() != null) {
             s.append(", regex=").append(getRegex().toString());
         }
@@ -231,6 +256,7 @@ public class PackAssignment {
         map.put("pack", pack);
         map.put("secondary", secondaries.isEmpty() ? null : new ArrayList<>(secondaries));
         map.put("send-delay", sendDelay > 0 ? sendDelay : null);
+        map.put("compose", compose ? true : null);
         map.put("regex", regex != null ? regex.toString() : null);
         return map;
     }
@@ -245,7 +271,8 @@ public class PackAssignment {
                 "pack", getPack() != null ? getPack() : "none",
                 "secondaries", String.join(", ", getSecondaries()),
                 "regex", getRegex() != null ? getRegex().toString() : "none",
-                "send-delay", String.valueOf(getSendDelay())
+                "send-delay", String.valueOf(getSendDelay()),
+                "compose", String.valueOf(isCompose())
         };
     }
 
@@ -260,7 +287,8 @@ public class PackAssignment {
                 "addsecondary",
                 "removesecondary",
                 "regex",
-                "senddelay"
+                "senddelay",
+                "compose"
         };
     }
 
@@ -321,6 +349,10 @@ public class PackAssignment {
             }
             save = setSendDelay(sendDelay);
             command.sendMessage(sender, "updated", "assignment", getName(), "type", "send delay", "value", sendDelay > -1 ? String.valueOf(sendDelay) : "none");
+        } else if ("compose".equalsIgnoreCase(args[0])) {
+            boolean compose = args.length > 1 ? Boolean.parseBoolean(args[1]) : !isCompose();
+            save = setCompose(compose);
+            command.sendMessage(sender, "updated", "assignment", getName(), "type", "compose", "value", String.valueOf(compose));
         } else if (args.length < 2) {
             return false;
         } else if ("addsecondary".equalsIgnoreCase(args[0])) {
@@ -0,0 +1,393 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import de.themoep.resourcepacksplugin.core.webserver.PackServer;
+import de.themoep.resourcepacksplugin.core.zip.ZipIndex;
+import de.themoep.resourcepacksplugin.core.zip.ZipWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Merges multiple locally served packs into a single composite pack.
+ * Files of packs earlier in the list override the ones of later packs.
+ * The compressed entries are copied without inflating them and always written in the same way
+ * so that the same inputs result in a byte-identical file.
+ * Composite packs are cached by the ordered list of their input packs, when one of the inputs changes
+ * the composite pack gets rebuilt and replaces the previous one for all players that use it.
+ */
+public class PackComposer {
+
+    /**
+     * The folder inside the webserver's folder to store the composite packs in
+     */
+    private static final String FOLDER = "composite";
+
+    /**
+     * How long to wait before building a composite pack again after it failed the first time, in milliseconds.
+     * This doubles with every further failure up to {@link #MAX_RETRY_DELAY}.
+     */
+    private static final long MIN_RETRY_DELAY = 30 * 1000;
+    private static final long MAX_RETRY_DELAY = 30 * 60 * 1000;
+
+    private final ResourcepacksPlugin plugin;
+    private final PackServer packServer;
+
+    /**
+     * input pack names -> latest composite pack of those packs
+     */
+    private final Map<String, Composite> composites = new ConcurrentHashMap<>();
+
+    /**
+     * input hashes of the composite packs that are currently being built
+     */
+    private final Set<String> building = ConcurrentHashMap.newKeySet();
+
+    /**
+     * input hashes -> failed build of a composite pack
+     */
+    private final Map<String, Failure> failures = new ConcurrentHashMap<>();
+
+    /**
+     * pack hash -> index of the pack's file
+     */
+    private final Map<String, ZipIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * Files of replaced composite packs that couldn't be deleted yet, e.g. because they are still mapped by the pack cache
+     */
+    private final Set<File> obsolete = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a new pack composer
+     * @param plugin        The plugin instance
+     * @param packServer    The webserver that the composite packs should be served by
+     */
+    public PackComposer(ResourcepacksPlugin plugin, PackServer packServer) {
+        this.plugin = plugin;
+        this.packServer = packServer;
+    }
+
+    /**
+     * Get the composite pack of some packs. If it isn't built yet or one of the packs changed
+     * then this will start building it in the background.
+     * @param packs The packs to merge, in order of priority. All of them need to have a local file.
+     * @return The composite pack or <tt>null</tt> if it isn't built yet.
+     *          While it is rebuilt after an input changed this returns the previous one.
+     */
+    public ResourcePack getComposite(List<ResourcePack> packs) {
+        String names = getNames(packs);
+        String key = getKey(packs);
+        Composite composite = composites.get(names);
+        if (composite == null || !composite.key.equals(key)) {
+            Failure failure = failures.get(key);
+            if ((failure == null || failure.retryAt <= System.currentTimeMillis()) && building.add(key)) {
+                List<ResourcePack> inputs = new ArrayList<>(packs);
+                plugin.runAsyncTask(() -> build(names, key, inputs));
+            }
+        }
+        return composite != null ? composite.pack : null;
+    }
+
+    /**
+     * Rebuild all known composite packs whose input packs changed
+     * and retry deleting the files of replaced ones
+     */
+    public void refresh() {
+        deleteObsolete();
+        for (String names : composites.keySet()) {
+            List<ResourcePack> packs = new ArrayList<>();
+            for (String name : names.split(",")) {
+                ResourcePack pack = plugin.getPackManager().getByName(name);
+                if (pack == null || pack.getFile() == null) {
+                    packs = null;
+                    break;
+                }
+                packs.add(pack);
+            }
+            if (packs != null) {
+                getComposite(packs);
+            }
+        }
+    }
+
+    private String getNames(List<ResourcePack> packs) {
+        StringBuilder names = new StringBuilder();
+        for (ResourcePack pack : packs) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(pack.getName().toLowerCase());
+        }
+        return names.toString();
+    }
+
+    private String getKey(List<ResourcePack> packs) {
+        StringBuilder key = new StringBuilder();
+        for (ResourcePack pack : packs) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(pack.getHash());
+        }
+        return key.toString();
+    }
+
+    private void build(String names, String key, List<ResourcePack> packs) {
+        try {
+            String id = BaseEncoding.base16().lowerCase().encode(sha1().digest(key.getBytes(Charsets.UTF_8)));
+            String path = FOLDER + "/" + id + ".zip";
+            File file = packServer.getFile(path);
+            if (file == null) {
+                throw new IOException("Invalid composite path " + path);
+            }
+
+            long start = System.currentTimeMillis();
+            if (!file.isFile()) {
+                write(packs, file);
+                plugin.getLogger().log(Level.INFO, "Built composite pack " + id + " of " + packs.size() + " packs in " + (System.currentTimeMillis() - start) + "ms");
+            }
+            byte[] hash = hash(file);
+
+            int format = 0;
+            for (ResourcePack pack : packs) {
+                format = Math.max(format, pack.getFormat());
+            }
+            ResourcePack composite = new ResourcePack("composite-" + id.substring(0, 8), packServer.getUrl(path), BaseEncoding.base16().lowerCase().encode(hash), format, false, null);
+            composite.setFile(path);
+            composite.setValidators(null, String.valueOf(file.lastModified()), file.length());
+            plugin.runTask(() -> {
+                failures.remove(key);
+                building.remove(key);
+                replace(names, new Composite(key, composite));
+                pruneIndexes();
+            });
+        } catch (IOException e) {
+            Failure previous = failures.get(key);
+            long delay = previous != null ? Math.min(previous.delay * 2, MAX_RETRY_DELAY) : MIN_RETRY_DELAY;
+            failures.put(key, new Failure(System.currentTimeMillis() + delay, delay));
+            plugin.getLogger().log(Level.SEVERE, "Unable to build composite pack of " + key + "! Trying again in " + (delay / 1000) + " seconds. " + e.getMessage());
+            building.remove(key);
+        }
+    }
+
+    /**
+     * Register a new composite pack. If it replaces a previous one then the players that use
+     * the previous pack get the new one and the file of the previous one gets deleted.
+     * @param names     The names of the input packs
+     * @param composite The new composite pack
+     */
+    private void replace(String names, Composite composite) {
+        Composite previous = composites.put(names, composite);
+        ResourcePack previousPack = previous != null && !previous.pack.equals(composite.pack) ? previous.pack : null;
+        plugin.getPackManager().addComposite(composite.pack, previousPack);
+        if (previousPack == null) {
+            return;
+        }
+        for (UUID playerId : plugin.getUserManager().getPackUsers(previousPack)) {
+            plugin.getUserManager().setUserPack(playerId, composite.pack);
+            plugin.sendPack(playerId, composite.pack);
+        }
+        for (Composite other : composites.values()) {
+            if (other.pack.equals(previousPack)) {
+                return; // Still used by the composite of other input packs
+            }
+        }
+        File file = packServer.getFile(previousPack.getFile());
+        if (file != null) {
+            packServer.invalidate(previousPack.getFile());
+            obsolete.add(file);
+        }
+        deleteObsolete();
+    }
+
+    /**
+     * Delete the files of replaced composite packs. Files that are still mapped can't be deleted on some
+     * systems until the mapping gets garbage collected, those are tried again on the next refresh.
+     */
+    private void deleteObsolete() {
+        Set<File> used = new HashSet<>();
+        for (Composite composite : composites.values()) {
+            used.add(packServer.getFile(composite.pack.getFile()));
+        }
+        for (Iterator<File> it = obsolete.iterator(); it.hasNext();) {
+            File file = it.next();
+            if (used.contains(file)) {
+                it.remove(); // Got built again in the meantime
+            } else if (!file.isFile() || file.delete()) {
+                it.remove();
+            } else {
+                plugin.logDebug(() -> "Could not delete old composite pack " + file + " yet, trying again later");
+            }
+        }
+    }
+
+    /**
+     * Write the merged pack to a file. The compressed data of the entries is copied as-is.
+     * @param packs The packs to merge
+     * @param file  The file to write to
+     * @throws IOException When a pack couldn't be read or the file couldn't be written
+     */
+    private void write(List<ResourcePack> packs, File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create folder " + parent);
+        }
+
+        // Select which pack each entry is taken from before writing anything
+        List<ZipIndex> sources = new ArrayList<>();
+        Map<String, Integer> plan = new LinkedHashMap<>();
+        for (ResourcePack pack : packs) {
+            ZipIndex index = getIndex(pack);
+            for (ZipIndex.Entry entry : index.getEntries()) {
+                plan.putIfAbsent(entry.getName(), sources.size());
+            }
+            sources.add(index);
+        }
+
+        File temp = new File(parent, file.getName() + ".tmp");
+        List<FileChannel> channels = new ArrayList<>();
+        try (ZipWriter writer = new ZipWriter(temp)) {
+            for (ZipIndex source : sources) {
+                channels.add(FileChannel.open(source.getFile().toPath(), StandardOpenOption.READ));
+            }
+            for (Map.Entry<String, Integer> entry : plan.entrySet()) {
+                writer.copy(sources.get(entry.getValue()).get(entry.getKey()), channels.get(entry.getValue()));
+            }
+            writer.finish();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        } finally {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+        for (ZipIndex source : sources) {
+            if (source.isOutdated()) {
+                temp.delete();
+                throw new IOException(source.getFile() + " changed while building the composite pack!");
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the index of the entries of the file served for a pack. Indexes are cached by the pack's hash
+     * so that the central directories of unchanged packs don't need to be read again.
+     * @param pack  The pack
+     * @return The index of the pack's file
+     * @throws IOException When the file doesn't exist, could not be read or changed since its hash was generated
+     */
+    private ZipIndex getIndex(ResourcePack pack) throws IOException {
+        File source = packServer.getFile(pack.getFile());
+        if (source == null || !source.isFile()) {
+            throw new IOException("File of pack " + pack.getName() + " does not exist!");
+        }
+        if (!String.valueOf(source.lastModified()).equals(pack.getLastModified()) || source.length() != pack.getContentLength()) {
+            throw new IOException("File of pack " + pack.getName() + " changed since its hash was generated!");
+        }
+        File served = packServer.getFile(plugin.getPackManager().getServedPath(pack));
+        if (served == null || !served.isFile()) {
+            throw new IOException("Served file of pack " + pack.getName() + " does not exist!");
+        }
+        ZipIndex index = indexes.get(pack.getHash());
+        if (index == null || index.isOutdated() || !index.getFile().equals(served)) {
+            index = ZipIndex.read(served);
+            indexes.put(pack.getHash(), index);
+        }
+        return index;
+    }
+
+    /**
+     * Remove the indexes of packs that aren't used by any known composite pack anymore
+     */
+    private void pruneIndexes() {
+        Set<String> used = new HashSet<>();
+        for (Composite composite : composites.values()) {
+            used.addAll(Arrays.asList(composite.key.split(",")));
+        }
+        for (String key : building) {
+            used.addAll(Arrays.asList(key.split(",")));
+        }
+        indexes.keySet().retainAll(used);
+    }
+
+    private static byte[] hash(File file) throws IOException {
+        MessageDigest digest = sha1();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha1() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not supported by this JVM?", e);
+        }
+    }
+
+    private static class Composite {
+        private final String key;
+        private final ResourcePack pack;
+
+        private Composite(String key, ResourcePack pack) {
+            this.key = key;
+            this.pack = pack;
+        }
+    }
+
+    private static class Failure {
+        private final long retryAt;
+        private final long delay;
+
+        private Failure(long retryAt, long delay) {
+            this.retryAt = retryAt;
+            this.delay = delay;
+        }
+    }
+}
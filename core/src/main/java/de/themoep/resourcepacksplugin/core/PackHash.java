@@ -0,0 +1,131 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * The binary sha1 hash of a pack. Used as the key of the hash index so that lookups
+ * don't need to encode the hash to a string first. The hex form is only created when it's requested.
+ */
+public final class PackHash {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] bytes;
+    private final int hashCode;
+    private String hex = null;
+
+    private PackHash(byte[] bytes) {
+        this.bytes = bytes;
+        this.hashCode = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Create a hash from its bytes, the array gets copied
+     * @param bytes The bytes of the hash
+     * @return The hash
+     */
+    public static PackHash of(byte[] bytes) {
+        return new PackHash(bytes.clone());
+    }
+
+    /**
+     * Create a hash that uses the array directly. Only for short-lived lookup keys, the array must not change while it is used.
+     * @param bytes The bytes of the hash
+     * @return The hash
+     */
+    static PackHash wrap(byte[] bytes) {
+        return new PackHash(bytes);
+    }
+
+    /**
+     * Parse a hash from its hex form
+     * @param hex   The hex string, upper or lower case
+     * @return The hash or <tt>null</tt> if the string is not valid hex
+     */
+    public static PackHash fromHex(String hex) {
+        if (hex == null || hex.length() % 2 != 0) {
+            return null;
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high == -1 || low == -1) {
+                return null;
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return new PackHash(bytes);
+    }
+
+    /**
+     * Get the bytes of this hash. The returned array is the internal one and must not be modified!
+     * @return The bytes of this hash
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Check whether or not this hash has certain bytes
+     * @param bytes The bytes to compare with
+     * @return <tt>true</tt> if the bytes are the same; <tt>false</tt> if not
+     */
+    public boolean equals(byte[] bytes) {
+        return Arrays.equals(this.bytes, bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PackHash)) {
+            return false;
+        }
+        PackHash other = (PackHash) o;
+        return hashCode == other.hashCode && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Get the hex form of this hash
+     * @return The lowercase hex string
+     */
+    @Override
+    public String toString() {
+        String hex = this.hex;
+        if (hex == null) {
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+                chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+            }
+            hex = new String(chars);
+            this.hex = hex;
+        }
+        return hex;
+    }
+}
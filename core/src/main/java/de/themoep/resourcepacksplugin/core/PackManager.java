@@ -18,28 +18,39 @@ package de.themoep.resourcepacksplugin.core;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSelectEvent;
 import de.themoep.resourcepacksplugin.core.events.IResourcePackSendEvent;
+import de.themoep.resourcepacksplugin.core.webserver.PackServer;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -52,46 +63,68 @@ public class PackManager {
     public static final String EMPTY_IDENTIFIER = "empty";
 
     private final ResourcepacksPlugin plugin;
-    /**
-     * packname -> ResourcePack
-     */
-    private Map<String, ResourcePack> packNames;
 
     /**
-     * packhash -> packname 
-     */
-    private Map<String, ResourcePack> packHashes;
-    
-    /**
-     * packurl -> packname 
+     * The current snapshot of the known packs and assignments, replaced as a whole on every change
      */
-    private Map<String, ResourcePack> packUrls;
+    private volatile PackRegistry registry = PackRegistry.EMPTY;
 
     /**
      * The empty pack, null if none is set
      */
-    private ResourcePack empty = null;
+    private volatile ResourcePack empty = null;
     
     /**
      * Name of the global pack, null if none is set
      */
-    private PackAssignment global = new PackAssignment("global");
-    
+    private volatile PackAssignment global = new PackAssignment("global");
+
     /**
-     * server-/worldname -> pack assignment
+     * Increased whenever packs or assignments change so that cached pack decisions of players get discarded
      */
-    private Map<String, PackAssignment> literalAssignments;
+    private final AtomicLong decisionGeneration = new AtomicLong();
 
     /**
-     * server-/worldname -> pack assignment
+     * The first protocol version of each pack format in ascending order, the formats are at the same index in {@link #FORMATS}
      */
-    private Map<String, PackAssignment> regexAssignments;
+    private static final int[] FORMAT_PROTOCOLS;
+    private static final int[] FORMATS;
+
+    static {
+        int[][] table = loadPackFormats();
+        FORMAT_PROTOCOLS = table[0];
+        FORMATS = table[1];
+    }
 
     /**
      * Whether or not to save the config on the next modification of the manager state
      */
     private boolean dirty = false;
 
+    /**
+     * The persistent cache of pack hashes
+     */
+    private HashCache hashCache = null;
+
+    /**
+     * Buffer used to read the packs when generating their hashes, one per hashing thread
+     */
+    private final ThreadLocal<byte[]> hashBuffer = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    /**
+     * The built-in webserver that serves local pack files, null if it isn't enabled
+     */
+    private PackServer packServer = null;
+
+    /**
+     * Merges the packs of assignments that have composing enabled, null if the webserver isn't enabled
+     */
+    private PackComposer packComposer = null;
+
+    /**
+     * Optimizes the local pack files before they get served, null if optimizing isn't enabled
+     */
+    private PackOptimizer packOptimizer = null;
 
     public PackManager(ResourcepacksPlugin plugin) {
         this.plugin = plugin;
@@ -101,13 +134,87 @@ public class PackManager {
      * Initialize this pack manager
      */
     public void init() {
-        packNames = new LinkedHashMap<>();
-        packHashes = new HashMap<>();
-        packUrls = new HashMap<>();
+        registry = PackRegistry.EMPTY;
         empty = null;
         global = new PackAssignment("global");
-        literalAssignments = new LinkedHashMap<>();
-        regexAssignments = new LinkedHashMap<>();
+        invalidateDecisions();
+        hashCache = new HashCache(new File(plugin.getDataFolder(), "hash-cache.txt"));
+    }
+
+    /**
+     * Load the persistent hash cache and set the hashes of all known packs whose url is cached.
+     * A hash that is set explicitly is kept and its outdated cache entry dropped unless the entry has the same hash.
+     * This does not check whether or not remote files changed, use {@link #generateHashes(ResourcepacksPlayer)} for that.
+     * Local files whose size or modification time doesn't match their cache entry get hashed in the background.
+     * @return The amount of packs whose hash was set from the cache
+     */
+    public int loadHashCache() {
+        try {
+            hashCache.load();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Unable to load the hash cache! " + e.getMessage());
+            return 0;
+        }
+        List<String> outdated = new ArrayList<>();
+        List<ResourcePack> unhashed = new ArrayList<>();
+        int loaded = updateRegistry(registry -> {
+            int count = 0;
+            for (ResourcePack pack : registry.packNames.values()) {
+                HashCache.Entry entry = hashCache.get(pack.getUrl());
+                if (pack.getFile() != null) {
+                    File source = packServer != null ? packServer.getFile(pack.getFile()) : null;
+                    if (entry != null && source != null && entry.matches(null, String.valueOf(source.lastModified()), source.length())) {
+                        setRawHash(registry, pack, entry.getHash());
+                        pack.setValidators(null, entry.getLastModified(), entry.getSize());
+                        count++;
+                    } else {
+                        unhashed.add(pack);
+                    }
+                    continue;
+                }
+                if (entry == null) {
+                    continue;
+                }
+                if (!pack.getHashKey().equals(entry.getHash()) && !pack.hasPlaceholderHash()) {
+                    // The hash was changed in the config after the entry was cached, the config wins
+                    outdated.add(pack.getUrl());
+                    continue;
+                }
+                setRawHash(registry, pack, entry.getHash());
+                pack.setValidators(entry.getEtag(), entry.getLastModified(), entry.getSize());
+                count++;
+            }
+            return count;
+        });
+        if (!outdated.isEmpty()) {
+            for (String url : outdated) {
+                hashCache.remove(url);
+            }
+            saveHashCache();
+        }
+        plugin.logDebug(() -> "Loaded " + loaded + " pack hashes from the cache, dropped " + outdated.size() + " outdated ones");
+        if (!unhashed.isEmpty()) {
+            plugin.logDebug(() -> "Hashing " + unhashed.size() + " changed local pack files in the background");
+            plugin.runAsyncTask(() -> {
+                if (!refreshHashes(null, true, unhashed).isEmpty()) {
+                    plugin.runTask(plugin::saveConfigChanges);
+                }
+            });
+        }
+        return loaded;
+    }
+
+    /**
+     * Save the hash cache on another thread
+     */
+    private void saveHashCache() {
+        plugin.runAsyncTask(() -> {
+            try {
+                hashCache.save();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Unable to save the hash cache! " + e.getMessage());
+            }
+        });
     }
 
     /**
@@ -117,17 +224,55 @@ public class PackManager {
      * @throws IllegalArgumentException when there already is a pack with the same url or hash but not name defined
      */
     public ResourcePack addPack(ResourcePack pack) throws IllegalArgumentException {
-        ResourcePack byHash = getByHash(pack.getHash());
-        if (byHash != null && !byHash.getName().equalsIgnoreCase(pack.getName())) {
-            throw new IllegalArgumentException("Could not add pack '" + pack.getName() + "'. There is already a pack with the hash '" + pack.getHash() + "' but a different name defined! (" + byHash.getName() + ")");
+        return updateRegistry(registry -> {
+            ResourcePack byHash = registry.packHashes.get(pack.getHashKey());
+            if (byHash != null && !byHash.getName().equalsIgnoreCase(pack.getName())) {
+                throw new IllegalArgumentException("Could not add pack '" + pack.getName() + "'. There is already a pack with the hash '" + pack.getHash() + "' but a different name defined! (" + byHash.getName() + ")");
+            }
+            ResourcePack byUrl = registry.packUrls.get(pack.getUrl());
+            if (byUrl != null && !byUrl.getName().equalsIgnoreCase(pack.getName())) {
+                throw new IllegalArgumentException("Could not add pack '" + pack.getName() + "'. There is already a pack with the url '" + pack.getUrl() + "' but a different name defined! (" + byUrl.getName() + ")");
+            }
+            registry.packHashes.put(pack.getHashKey(), pack);
+            registry.packUrls.put(pack.getUrl(), pack);
+            return registry.packNames.put(pack.getName().toLowerCase(), pack);
+        });
+    }
+
+    /**
+     * Apply a change to the packs and assignments. The change is made on a copy of the current
+     * registry which then replaces it, readers on other threads either see all of it or nothing.
+     * Changes are applied one after another. If the change didn't add, remove or replace anything then
+     * the current registry is kept and cached pack decisions stay valid.
+     * @param change    The change to make to the copy
+     * @param <T>       The type of the change's result
+     * @return The result of the change
+     */
+    private synchronized <T> T updateRegistry(Function<PackRegistry.Builder, T> change) {
+        PackRegistry.Builder builder = registry.edit();
+        T result = change.apply(builder);
+        if (builder.isChanged()) {
+            registry = builder.build();
+            invalidateDecisions();
         }
-        ResourcePack byUrl = getByUrl(pack.getUrl());
-        if (byUrl != null && !byUrl.getName().equalsIgnoreCase(pack.getName())) {
-            throw new IllegalArgumentException("Could not add pack '" + pack.getName() + "'. There is already a pack with the url '" + pack.getUrl() + "' but a different name defined! (" + byUrl.getName() + ")");
+        return result;
+    }
+
+    /**
+     * Set the hash of a pack and update its entry in the hash index of a registry copy
+     * @param registry  The registry copy that is being changed
+     * @param pack      The pack
+     * @param hash      The new hash
+     * @return Whether or not the hash changed
+     */
+    private static boolean setRawHash(PackRegistry.Builder registry, ResourcePack pack, byte[] hash) {
+        if (pack.getHashKey().equals(hash)) {
+            return false;
         }
-        packHashes.put(pack.getHash(), pack);
-        packUrls.put(pack.getUrl(), pack);
-        return packNames.put(pack.getName().toLowerCase(), pack);
+        registry.packHashes.remove(pack.getHashKey(), pack);
+        pack.setRawHash(hash);
+        registry.packHashes.put(pack.getHashKey(), pack);
+        return true;
     }
 
     /**
@@ -140,9 +285,19 @@ public class PackManager {
         if (pack.getHash().equals(hash)) {
             return false;
         }
-        packHashes.remove(pack.getHash());
-        pack.setHash(hash);
-        packHashes.put(pack.getHash(), pack);
+        updateRegistry(registry -> {
+            registry.packHashes.remove(pack.getHashKey(), pack);
+            pack.setHash(hash);
+            pack.setValidators(null, null, -1);
+            return registry.packHashes.put(pack.getHashKey(), pack);
+        });
+        // The cached hash would replace the new one on the next load or refresh
+        if (hashCache.remove(pack.getUrl()) != null) {
+            saveHashCache();
+        }
+        if (pack.getFile() != null && packServer != null) {
+            packServer.invalidate(getServedPath(pack));
+        }
         return true;
     }
 
@@ -156,19 +311,136 @@ public class PackManager {
         if (pack.getUrl().equals(url)) {
             return false;
         }
-        packUrls.remove(pack.getUrl());
-        pack.setUrl(url);
-        packUrls.put(pack.getUrl(), pack);
+        String oldUrl = pack.getUrl();
+        updateRegistry(registry -> {
+            registry.packUrls.remove(pack.getUrl(), pack);
+            pack.setUrl(url);
+            pack.setFile(null);
+            pack.setValidators(null, null, -1);
+            return registry.packUrls.put(pack.getUrl(), pack);
+        });
+        if (hashCache.remove(oldUrl) != null) {
+            saveHashCache();
+        }
         return true;
     }
 
     /**
-     * Get the resourcepack by its name
+     * Register a composite pack so that it can be found by its name, hash and url.
+     * Composite packs are not added to the list of named packs and don't get saved to the config.
+     * @param pack      The composite pack
+     * @param previous  The composite pack that gets replaced by the new one, null if there is none
+     */
+    void addComposite(ResourcePack pack, ResourcePack previous) {
+        updateRegistry(registry -> {
+            if (previous != null) {
+                registry.compositeNames.remove(previous.getName().toLowerCase(), previous);
+                registry.packHashes.remove(previous.getHashKey(), previous);
+                registry.packUrls.remove(previous.getUrl(), previous);
+            }
+            registry.compositeNames.put(pack.getName().toLowerCase(), pack);
+            registry.packHashes.putIfAbsent(pack.getHashKey(), pack);
+            return registry.packUrls.putIfAbsent(pack.getUrl(), pack);
+        });
+    }
+
+    /**
+     * Start building the composite packs of all assignments that have composing enabled
+     * and rebuild the known composite packs whose input packs changed
+     */
+    public void buildComposites() {
+        if (packComposer == null) {
+            return;
+        }
+        List<PackAssignment> assignments = new ArrayList<>(getAssignments());
+        assignments.add(getGlobalAssignment());
+        for (PackAssignment assignment : assignments) {
+            if (assignment.isCompose()) {
+                List<ResourcePack> packs = getComposeInputs(null, assignment);
+                if (packs.size() > 1) {
+                    packComposer.getComposite(packs);
+                }
+            }
+        }
+        packComposer.refresh();
+    }
+
+    /**
+     * Get the composite pack of an assignment for a player
+     * @param playerId      The UUID of the player
+     * @param assignment    The assignment
+     * @return The composite pack of all the assignment's packs that the player can use
+     *          or <tt>null</tt> if the assignment doesn't compose packs, there was nothing to merge
+     *          or the composite pack isn't built yet
+     */
+    private ResourcePack getComposite(UUID playerId, PackAssignment assignment) {
+        if (packComposer == null || !assignment.isCompose()) {
+            return null;
+        }
+        List<ResourcePack> packs = getComposeInputs(playerId, assignment);
+        return packs.size() > 1 ? packComposer.getComposite(packs) : null;
+    }
+
+    /**
+     * Get the locally served packs of an assignment in order of priority
+     * @param playerId      The UUID of the player that needs to be able to use the packs, null if it should not be checked
+     * @param assignment    The assignment
+     * @return The packs that can be merged
+     */
+    private List<ResourcePack> getComposeInputs(UUID playerId, PackAssignment assignment) {
+        List<String> names = new ArrayList<>();
+        if (assignment.getPack() != null) {
+            names.add(assignment.getPack());
+        }
+        names.addAll(assignment.getSecondaries());
+        List<ResourcePack> packs = new ArrayList<>();
+        for (String name : names) {
+            ResourcePack pack = getByName(name);
+            if (pack != null && pack.getFile() != null && !packs.contains(pack)
+                    && (playerId == null || checkPack(playerId, pack, IResourcePackSelectEvent.Status.UNKNOWN) == IResourcePackSelectEvent.Status.SUCCESS)) {
+                packs.add(pack);
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Set the local file of a pack that is served by the built-in webserver.
+     * This will set the url of the pack to the file's public url. The file isn't hashed here,
+     * {@link #loadHashCache()} takes the hash from the cache if the file didn't change and hashes it in the background otherwise.
+     * If the optimizer is enabled then the optimized copy of the file is served instead as soon as it exists,
+     * until then the file itself is served. Optimizing also only happens in the background.
+     * @param pack The pack to update
+     * @param file The path of the file relative to the webserver's folder
+     * @return Whether or not the file could be set
+     * @throws IllegalStateException when the webserver isn't enabled
+     */
+    public boolean setPackFile(ResourcePack pack, String file) throws IllegalStateException {
+        if (packServer == null) {
+            throw new IllegalStateException("Pack '" + pack.getName() + "' has a local file defined but the webserver is not enabled!");
+        }
+        File packFile = packServer.getFile(file);
+        if (packFile == null || !packFile.isFile()) {
+            plugin.getLogger().log(Level.SEVERE, "Local file " + file + " of pack '" + pack.getName() + "' does not exist in " + packServer.getFolder());
+            return false;
+        }
+        String url = packServer.getUrl(getServedPath(file));
+        updateRegistry(registry -> {
+            registry.packUrls.remove(pack.getUrl(), pack);
+            pack.setUrl(url);
+            return registry.packUrls.put(url, pack);
+        });
+        pack.setFile(file);
+        return true;
+    }
+
+    /**
+     * Get the resourcepack by its name, this also finds the composite packs
      * @param name The name of the pack to get
      * @return The resourcepack with that name, null if there is none
      */
     public ResourcePack getByName(String name) {
-        return name != null ? packNames.get(name.toLowerCase()) : null;
+        return name != null ? registry.getByName(name.toLowerCase()) : null;
     }
     
     /**
@@ -177,7 +449,8 @@ public class PackManager {
      * @return The resourcepack with that hash, null if there is none
      */
     public ResourcePack getByHash(String hash) {
-        return packHashes.get(hash);
+        PackHash key = PackHash.fromHex(hash);
+        return key != null ? registry.getByHash(key) : null;
     }
 
     /**
@@ -186,7 +459,16 @@ public class PackManager {
      * @return The resourcepack with that hash, null if there is none
      */
     public ResourcePack getByHash(byte[] hash) {
-        return packHashes.get(BaseEncoding.base16().lowerCase().encode(hash));
+        return registry.getByHash(PackHash.wrap(hash));
+    }
+
+    /**
+     * Get the resourcepack by its hash
+     * @param hash The hash of the pack to get
+     * @return The resourcepack with that hash, null if there is none
+     */
+    public ResourcePack getByHash(PackHash hash) {
+        return registry.getByHash(hash);
     }
 
     /**
@@ -195,7 +477,7 @@ public class PackManager {
      * @return The resourcepack with that url, null if there is none
      */
     public ResourcePack getByUrl(String url) {
-        return packUrls.get(url);
+        return registry.getByUrl(url);
     }
 
     /**
@@ -236,6 +518,7 @@ public class PackManager {
     public ResourcePack setGlobalPack(ResourcePack pack) {
         ResourcePack rp = getGlobalPack();
         getGlobalAssignment().setPack(pack);
+        invalidateDecisions();
         return rp;
     }
 
@@ -268,6 +551,7 @@ public class PackManager {
      */
     @Deprecated
     public boolean addGlobalSecondary(ResourcePack pack) {
+        invalidateDecisions();
         return getGlobalAssignment().addSecondary(pack);
     }
 
@@ -279,6 +563,7 @@ public class PackManager {
      */
     @Deprecated
     public boolean addGlobalSecondary(String packname) {
+        invalidateDecisions();
         return getGlobalAssignment().addSecondary(packname);
     }
 
@@ -368,7 +653,8 @@ public class PackManager {
      */
     @Deprecated
     public void addServer(String server, ResourcePack pack) {
-        getAssignment(server).setPack(pack);
+        getOrCreateAssignment(server).setPack(pack);
+        invalidateDecisions();
     }
 
     /**
@@ -385,6 +671,7 @@ public class PackManager {
      */
     public void setGlobalAssignment(PackAssignment assignment) {
         this.global = assignment;
+        invalidateDecisions();
     }
 
     /**
@@ -393,32 +680,39 @@ public class PackManager {
      * @return              The previous assignment or null if there was none
      */
     public PackAssignment addAssignment(PackAssignment assignment) {
-        PackAssignment previous;
-        if (assignment.getRegex() != null) {
-            previous = regexAssignments.put(assignment.getName().toLowerCase(), assignment);
-        } else {
-            previous = literalAssignments.put(assignment.getName().toLowerCase(), assignment);
-        }
+        PackAssignment previous = updateRegistry(registry -> {
+            if (assignment.getRegex() != null) {
+                return registry.regexAssignments.put(assignment.getName().toLowerCase(), assignment);
+            } else {
+                return registry.literalAssignments.put(assignment.getName().toLowerCase(), assignment);
+            }
+        });
         checkDirty();
         return previous;
     }
 
     /**
-     * Get the assignment of a server/world
+     * Get the assignment of a server/world. The lookup is cached until an assignment gets added or removed.
      * @param server    The name of the server/world
-     * @return          The PackAssignment; an empty one if there is none
+     * @return          The PackAssignment; a new empty one if there is none
      */
     public PackAssignment getAssignment(String server) {
-        PackAssignment assignment = literalAssignments.get(server.toLowerCase());
-        if (assignment != null) {
-            return assignment;
-        }
-        for (PackAssignment regexAssignment : regexAssignments.values()) {
-            if (regexAssignment.getRegex().matcher(server).matches()) {
-                return regexAssignment;
-            }
+        PackAssignment assignment = registry.resolveAssignment(server);
+        return assignment != null ? assignment : new PackAssignment("empty");
+    }
+
+    /**
+     * Get the assignment of a server/world and add a new one if there is none
+     * @param server    The name of the server/world
+     * @return          The PackAssignment
+     */
+    private PackAssignment getOrCreateAssignment(String server) {
+        PackAssignment assignment = registry.resolveAssignment(server);
+        if (assignment == null) {
+            assignment = new PackAssignment(server);
+            addAssignment(assignment);
         }
-        return new PackAssignment("empty");
+        return assignment;
     }
 
     /**
@@ -427,9 +721,10 @@ public class PackManager {
      * @return      The PackAssignment or null if not found
      */
     public PackAssignment getAssignmentByName(String name) {
-        PackAssignment assignment = literalAssignments.get(name.toLowerCase());
+        PackRegistry registry = this.registry;
+        PackAssignment assignment = registry.getLiteralAssignments().get(name.toLowerCase());
         if (assignment == null) {
-            assignment = regexAssignments.get(name.toLowerCase());
+            assignment = registry.getRegexAssignments().get(name.toLowerCase());
         }
         return assignment;
     }
@@ -439,8 +734,9 @@ public class PackManager {
      * @return The all PackAssignments
      */
     public Collection<? extends PackAssignment> getAssignments() {
-        List<PackAssignment> assignments = new ArrayList<>(literalAssignments.values());
-        assignments.addAll(regexAssignments.values());
+        PackRegistry registry = this.registry;
+        List<PackAssignment> assignments = new ArrayList<>(registry.getLiteralAssignments().values());
+        assignments.addAll(registry.getRegexAssignments().values());
         return assignments;
     }
 
@@ -458,7 +754,7 @@ public class PackManager {
             } else {
                 try {
                     assignment.setRegex(Pattern.compile(((String) config.get("regex"))));
-                    plugin.getLogger().log(plugin.getLogLevel(), "Regex: " + assignment.getRegex().toString());
+                    plugin.logDebug(() -> "Regex: " + assignment.getRegex().toString());
                 } catch (PatternSyntaxException e) {
                     plugin.getLogger().log(Level.WARNING, "The assignment's regex '" + config.get("regex") + "' isn't valid! Using the key name literally! (" + e.getMessage() + ")");
                 }
@@ -471,7 +767,7 @@ public class PackManager {
                 ResourcePack pack = getByName((String) config.get("pack"));
                 if (pack != null) {
                     assignment.setPack(pack);
-                    plugin.getLogger().log(plugin.getLogLevel(), "Pack: " + pack.getName());
+                    plugin.logDebug(() -> "Pack: " + pack.getName());
                 } else {
                     plugin.getLogger().log(Level.WARNING, "No pack with the name " + config.get("pack") + " defined?");
                 }
@@ -483,25 +779,33 @@ public class PackManager {
                     && !(((List) config.get("secondary")).get(0) instanceof String)){
                 plugin.getLogger().log(Level.WARNING, "'secondary' option has to be a String List!");
             } else {
-                plugin.getLogger().log(plugin.getLogLevel(), "Secondary packs:");
+                plugin.logDebug("Secondary packs:");
                 List<String> secondary = (List<String>) config.get("secondary");
                 for(String secondaryPack : secondary) {
                     ResourcePack pack = getByName(secondaryPack);
                     if (pack != null) {
                         assignment.addSecondary(pack);
-                        plugin.getLogger().log(plugin.getLogLevel(), "- " + pack.getName());
+                        plugin.logDebug(() -> "- " + pack.getName());
                     } else {
                         plugin.getLogger().log(Level.WARNING, "No pack with the name " + config.get("pack") + " defined?");
                     }
                 }
             }
         }
+        if (config.get("compose") != null) {
+            if (!(config.get("compose") instanceof Boolean)) {
+                plugin.getLogger().log(Level.WARNING, "'compose' option has to be a boolean!");
+            } else {
+                assignment.setCompose((Boolean) config.get("compose"));
+                plugin.logDebug(() -> "Compose: " + assignment.isCompose());
+            }
+        }
         if (config.get("send-delay") != null) {
             if (!(config.get("send-delay") instanceof Number)) {
                 plugin.getLogger().log(Level.WARNING, "'send-delay' option has to be a number!");
             } else {
                 assignment.setSendDelay(((Number) config.get("send-delay")).longValue());
-                plugin.getLogger().log(plugin.getLogLevel(), "Send delay: " + assignment.getSendDelay());
+                plugin.logDebug(() -> "Send delay: " + assignment.getSendDelay());
             }
         }
         return assignment;
@@ -523,12 +827,12 @@ public class PackManager {
      * @return True if there was a assignment for that key, false if not
      */
     public boolean removeAssignment(String key) {
-        if (literalAssignments.remove(key.toLowerCase()) != null) {
-            regexAssignments.remove(key.toLowerCase());
+        boolean removed = updateRegistry(registry -> registry.literalAssignments.remove(key.toLowerCase()) != null
+                | registry.regexAssignments.remove(key.toLowerCase()) != null);
+        if (removed) {
             checkDirty();
-            return true;
         }
-        return false;
+        return removed;
     }
 
     /**
@@ -537,12 +841,13 @@ public class PackManager {
      * @return True if there was a assignment for that key, false if not
      */
     public boolean removeAssignment(PackAssignment assignment) {
-        boolean removed;
-        if (assignment.getRegex() != null) {
-            removed = regexAssignments.remove(assignment.getName().toLowerCase()) != null;
-        } else {
-            removed = literalAssignments.remove(assignment.getName().toLowerCase()) != null;
-        }
+        boolean removed = updateRegistry(registry -> {
+            if (assignment.getRegex() != null) {
+                return registry.regexAssignments.remove(assignment.getName().toLowerCase()) != null;
+            } else {
+                return registry.literalAssignments.remove(assignment.getName().toLowerCase()) != null;
+            }
+        });
         checkDirty();
         return removed;
     }
@@ -556,7 +861,8 @@ public class PackManager {
      */
     @Deprecated
     public boolean addServerSecondary(String server, ResourcePack pack) {
-        return getAssignment(server).addSecondary(pack);
+        invalidateDecisions();
+        return getOrCreateAssignment(server).addSecondary(pack);
     }
 
     /**
@@ -568,7 +874,8 @@ public class PackManager {
      */
     @Deprecated
     public boolean addServerSecondary(String server, String packname) {
-        return getAssignment(server).addSecondary(packname);
+        invalidateDecisions();
+        return getOrCreateAssignment(server).addSecondary(packname);
     }
 
     /**
@@ -634,10 +941,11 @@ public class PackManager {
             }
         }
         if (pack == null) {
-            pack = getByName(plugin.getStoredPack(playerId));
-            if (pack != null) {
-                plugin.getLogger().log(plugin.getLogLevel(), playerId + " has the pack " + pack.getName() + " stored!");
+            ResourcePack stored = getByName(plugin.getStoredPack(playerId));
+            if (stored != null) {
+                plugin.logDebug(() -> playerId + " has the pack " + stored.getName() + " stored!");
             }
+            pack = stored;
         }
         if (pack != null && pack.equals(prev)) {
             return false;
@@ -647,7 +955,7 @@ public class PackManager {
         }
         IResourcePackSendEvent sendEvent = plugin.callPackSendEvent(playerId, pack);
         if (sendEvent.isCancelled()) {
-            plugin.getLogger().log(plugin.getLogLevel(), "Pack send event for " + playerId + " was cancelled!");
+            plugin.logDebug(() -> "Pack send event for " + playerId + " was cancelled!");
             return false;
         }
         pack = sendEvent.getPack();
@@ -673,58 +981,87 @@ public class PackManager {
     }
 
     /**
-     * Get the pack the player should have on that server
+     * Get the pack the player should have on that server.
+     * The decision is cached per online player until the packs, the assignments, the player's pack format
+     * or the permissions of the restricted packs that it depended on change. The select event is still called every time.
      * @param playerId The UUID of the player
      * @param serverName The name of the server
      * @return The pack for that server; <tt>null</tt> if he should have none
      */
     public ResourcePack getApplicablePack(UUID playerId, String serverName) {
         ResourcePack prev = plugin.getUserManager().getUserPack(playerId);
-        ResourcePack pack = null;
-        ResourcepacksPlayer player = plugin.getPlayer(playerId);
-        if (player == null) {
-            player = new ResourcepacksPlayer("uuid:" + playerId, playerId);
+        ResourcepacksPlayer onlinePlayer = plugin.getPlayer(playerId);
+        ResourcepacksPlayer player = onlinePlayer != null ? onlinePlayer : new ResourcepacksPlayer("uuid:" + playerId, playerId);
+        PackAssignment assignment = serverName != null && !serverName.isEmpty() ? registry.resolveAssignment(serverName) : null;
+        long generation = decisionGeneration.get();
+        int format = plugin.getPlayerPackFormat(playerId);
+
+        // Composite packs get built in the background so decisions involving them can't be cached
+        boolean cacheable = onlinePlayer != null && !getGlobalAssignment().isCompose() && (assignment == null || !assignment.isCompose());
+        PlayerSession session = cacheable ? plugin.getUserManager().getSession(playerId) : null;
+        if (session != null) {
+            PlayerSession.Decision decision = session.getDecision();
+            if (decision != null && decision.isValid(plugin, generation, assignment, prev, format, playerId)) {
+                plugin.logDebug(() -> player.getName() + " used cached pack decision");
+                if (!decision.callEvent) {
+                    return decision.pack;
+                }
+                return plugin.callPackSelectEvent(playerId, decision.pack, decision.status).getPack();
+            }
         }
+
+        List<ResourcePack> restricted = new ArrayList<>();
+        ResourcePack pack = null;
         IResourcePackSelectEvent.Status status = IResourcePackSelectEvent.Status.UNKNOWN;
-        if(getGlobalAssignment().isSecondary(prev) && checkPack(playerId, prev, IResourcePackSelectEvent.Status.SUCCESS) == IResourcePackSelectEvent.Status.SUCCESS) {
-            plugin.getLogger().log(plugin.getLogLevel(), player.getName() + " matched global assignment");
-            return prev;
+        if(!getGlobalAssignment().isCompose() && getGlobalAssignment().isSecondary(prev) && checkPack(playerId, prev, IResourcePackSelectEvent.Status.SUCCESS, restricted) == IResourcePackSelectEvent.Status.SUCCESS) {
+            plugin.logDebug(() -> player.getName() + " matched global assignment");
+            return remember(session, generation, assignment, prev, format, restricted, prev, IResourcePackSelectEvent.Status.SUCCESS, false);
         }
-        if(serverName != null && !serverName.isEmpty()) {
-            PackAssignment assignment = getAssignment(serverName);
-            if(assignment.isSecondary(prev) && checkPack(playerId, prev, IResourcePackSelectEvent.Status.SUCCESS) == IResourcePackSelectEvent.Status.SUCCESS) {
-                plugin.getLogger().log(plugin.getLogLevel(), player.getName() + " matched assignment " + assignment.getName());
-                return prev;
+        if(assignment != null) {
+            ResourcePack composite = getComposite(playerId, assignment);
+            if (composite != null) {
+                plugin.logDebug(() -> player.getName() + " matched composite of assignment " + assignment.getName());
+                return plugin.callPackSelectEvent(playerId, composite, IResourcePackSelectEvent.Status.SUCCESS).getPack();
+            }
+            if(assignment.isSecondary(prev) && checkPack(playerId, prev, IResourcePackSelectEvent.Status.SUCCESS, restricted) == IResourcePackSelectEvent.Status.SUCCESS) {
+                plugin.logDebug(() -> player.getName() + " matched assignment " + assignment.getName());
+                return remember(session, generation, assignment, prev, format, restricted, prev, IResourcePackSelectEvent.Status.SUCCESS, false);
             }
             ResourcePack serverPack = getByName(assignment.getPack());
-            status = checkPack(playerId, serverPack, status);
+            status = checkPack(playerId, serverPack, status, restricted);
             if(status == IResourcePackSelectEvent.Status.SUCCESS) {
                 pack = serverPack;
-                plugin.getLogger().log(plugin.getLogLevel(), player.getName() + " matched assignment " + assignment.getName());
+                plugin.logDebug(() -> player.getName() + " matched assignment " + assignment.getName());
             } else if(prev != null || serverPack != null){
                 for(String secondaryName : assignment.getSecondaries()) {
                     ResourcePack secondaryPack = getByName(secondaryName);
-                    status = checkPack(playerId, secondaryPack, status);
+                    status = checkPack(playerId, secondaryPack, status, restricted);
                     if(status == IResourcePackSelectEvent.Status.SUCCESS) {
                         pack = secondaryPack;
-                        plugin.getLogger().log(plugin.getLogLevel(), player.getName() + " matched assignment " + assignment.getName());
+                        plugin.logDebug(() -> player.getName() + " matched assignment " + assignment.getName());
                         break;
                     }
                 }
             }
         }
+        if(pack == null) {
+            pack = getComposite(playerId, getGlobalAssignment());
+            if (pack != null) {
+                plugin.logDebug(() -> player.getName() + " matched composite of global assignment");
+            }
+        }
         if(pack == null) {
             ResourcePack globalPack = getByName(getGlobalAssignment().getPack());
-            status = checkPack(playerId, globalPack, status);
+            status = checkPack(playerId, globalPack, status, restricted);
             if(status == IResourcePackSelectEvent.Status.SUCCESS) {
                 pack = globalPack;
-                plugin.getLogger().log(plugin.getLogLevel(), player.getName() + " matched global assignment");
+                plugin.logDebug(() -> player.getName() + " matched global assignment");
             } else if(prev != null || globalPack != null){
                 for (String secondaryName : getGlobalAssignment().getSecondaries()) {
                     ResourcePack secondaryPack = getByName(secondaryName);
-                    status = checkPack(playerId, secondaryPack, status);
+                    status = checkPack(playerId, secondaryPack, status, restricted);
                     if(status == IResourcePackSelectEvent.Status.SUCCESS) {
-                        plugin.getLogger().log(plugin.getLogLevel(), player.getName() + " matched global assignment");
+                        plugin.logDebug(() -> player.getName() + " matched global assignment");
                         pack = secondaryPack;
                         break;
                     }
@@ -736,16 +1073,52 @@ public class PackManager {
             status = IResourcePackSelectEvent.Status.SUCCESS;
         }
 
+        remember(session, generation, assignment, prev, format, restricted, pack, status, true);
         IResourcePackSelectEvent selectEvent = plugin.callPackSelectEvent(playerId, pack, status);
         return selectEvent.getPack();
     }
 
+    /**
+     * Store a pack decision in the session of a player
+     * @return The selected pack
+     */
+    private ResourcePack remember(PlayerSession session, long generation, PackAssignment assignment, ResourcePack prev, int format,
+                                  List<ResourcePack> restricted, ResourcePack pack, IResourcePackSelectEvent.Status status, boolean callEvent) {
+        if (session != null) {
+            boolean[] permitted = new boolean[restricted.size()];
+            for (int i = 0; i < permitted.length; i++) {
+                permitted[i] = plugin.checkPackPermission(session.getPlayerId(), restricted.get(i));
+            }
+            session.setDecision(new PlayerSession.Decision(generation, assignment, prev, format,
+                    restricted.toArray(new ResourcePack[0]), permitted, pack, status, callEvent));
+        }
+        return pack;
+    }
+
+    /**
+     * Check a pack and remember it if it is restricted so that the decision can be checked for permission changes
+     */
+    private IResourcePackSelectEvent.Status checkPack(UUID playerId, ResourcePack pack, IResourcePackSelectEvent.Status status, List<ResourcePack> restricted) {
+        if (pack != null && pack.isRestricted() && !restricted.contains(pack)) {
+            restricted.add(pack);
+        }
+        return checkPack(playerId, pack, status);
+    }
+
+    /**
+     * Discard the cached pack decisions of all players.
+     * This needs to be called when packs or assignments got changed without using the methods of this manager.
+     */
+    public void invalidateDecisions() {
+        decisionGeneration.incrementAndGet();
+    }
+
     protected IResourcePackSelectEvent.Status checkPack(UUID playerId, ResourcePack pack, IResourcePackSelectEvent.Status status) {
         if(pack == null) {
             return status;
         }
         boolean rightFormat = pack.getFormat() <= plugin.getPlayerPackFormat(playerId);
-        boolean hasPermission = !pack.isRestricted() || plugin.checkPermission(playerId, pack.getPermission());
+        boolean hasPermission = plugin.checkPackPermission(playerId, pack);
         if(rightFormat && hasPermission) {
             return IResourcePackSelectEvent.Status.SUCCESS;
         }
@@ -773,7 +1146,7 @@ public class PackManager {
      * @return A new array list of packs
      */
     public List<ResourcePack> getPacks() {
-        return new ArrayList<>(packNames.values());
+        return new ArrayList<>(registry.getPacks().values());
     }
 
     /**
@@ -784,77 +1157,411 @@ public class PackManager {
     public void generateHashes(final ResourcepacksPlayer sender) {
         plugin.runAsyncTask(() -> {
             plugin.sendMessage(sender, "generate-hashes.generating");
-            int changed = 0;
 
-            for (ResourcePack pack : getPacks()) {
-                if (pack.getName().startsWith("backend-")) {
+            List<ResourcePack> changed = refreshHashes(sender, false);
+            if (changed.size() > 0) {
+                plugin.sendMessage(sender, "generate-hashes.changed", "amount", String.valueOf(changed.size()));
+                plugin.runTask(plugin::saveConfigChanges);
+            } else {
+                plugin.sendMessage(sender, "generate-hashes.none-changed");
+            }
+        });
+    }
+
+    /**
+     * Check all packs for changes and update the hashes of the ones that changed.
+     * This blocks until all packs were checked so it should never be called on the main thread!
+     * Does not save the changes to the config.
+     * @param sender    The player that should receive the progress messages, null if it should be the console
+     * @param quiet     Whether or not to only send messages about errors
+     * @return The packs whose hash changed
+     */
+    public List<ResourcePack> refreshHashes(ResourcepacksPlayer sender, boolean quiet) {
+        List<ResourcePack> packs = new ArrayList<>();
+        for (ResourcePack pack : getPacks()) {
+            if (!pack.getName().startsWith("backend-")) {
+                packs.add(pack);
+            }
+        }
+        return refreshHashes(sender, quiet, packs);
+    }
+
+    /**
+     * Check some packs for changes and update the hashes of the ones that changed.
+     * This blocks until all packs were checked so it should never be called on the main thread!
+     * Packs that got replaced in the meantime, e.g. by a reload, are ignored.
+     * @param sender    The player that should receive the progress messages, null if it should be the console
+     * @param quiet     Whether or not to only send messages about errors
+     * @param packs     The packs to check
+     * @return The packs whose hash changed
+     */
+    private List<ResourcePack> refreshHashes(ResourcepacksPlayer sender, boolean quiet, List<ResourcePack> packs) {
+        int threads = Math.max(1, Math.min(plugin.getHashingThreads(), packs.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " Hashing Thread #%d")
+                .setDaemon(true)
+                .build());
+        Map<String, Semaphore> hostConnections = new ConcurrentHashMap<>();
+        Map<ResourcePack, Future<DownloadResult>> results = new LinkedHashMap<>();
+        for (ResourcePack pack : packs) {
+            results.put(pack, executor.submit(() -> downloadHash(sender, pack, hostConnections, quiet)));
+        }
+        executor.shutdown();
+
+        Map<ResourcePack, DownloadResult> downloaded = new LinkedHashMap<>();
+        for (Map.Entry<ResourcePack, Future<DownloadResult>> entry : results.entrySet()) {
+            try {
+                DownloadResult result = entry.getValue().get();
+                if (result != null) {
+                    downloaded.put(entry.getKey(), result);
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                return new ArrayList<>();
+            } catch (ExecutionException e) {
+                plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.failed-to-load-pack",
+                        "pack", entry.getKey().getName(),
+                        "url", entry.getKey().getUrl(),
+                        "hash", entry.getKey().getHash(),
+                        "error", String.valueOf(e.getCause())
+                );
+            }
+        }
+
+        // Apply all new hashes in one registry update so that readers never see partial results
+        List<ResourcePack> changed = new ArrayList<>();
+        updateRegistry(registry -> {
+            for (Map.Entry<ResourcePack, DownloadResult> entry : downloaded.entrySet()) {
+                ResourcePack pack = entry.getKey();
+                DownloadResult result = entry.getValue();
+                if (registry.packNames.get(pack.getName().toLowerCase()) != pack) {
                     continue;
                 }
-                Path target = new File(plugin.getDataFolder(), pack.getName().replaceAll("[^a-zA-Z0-9\\.\\-]", "_") + "-downloaded.zip").toPath();
-                InputStream in = null;
-                try {
-                    URL url = new URL(pack.getUrl());
-                    plugin.sendMessage(sender, "generate-hashes.downloading",
-                            "pack", pack.getName(),
-                            "url", pack.getUrl(),
-                            "hash", pack.getHash()
-                    );
-                    HttpURLConnection con = (HttpURLConnection) url.openConnection();
-                    con.setRequestProperty("User-Agent", plugin.getName() + "/" + plugin.getVersion());
-                    in = con.getInputStream();
-                    Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
-
-                    byte[] hash = Hashing.sha1().hashBytes(Files.readAllBytes(target)).asBytes();
-                    if (!Arrays.equals(pack.getRawHash(), hash)) {
-                        packHashes.remove(pack.getHash());
-                        pack.setRawHash(hash);
-                        packHashes.put(pack.getHash(), pack);
-                        changed++;
-                    }
-                    plugin.sendMessage(sender, "generate-hashes.hash-sum",
-                            "pack", pack.getName(),
-                            "url", pack.getUrl(),
-                            "hash", pack.getHash()
-                    );
-                    Files.deleteIfExists(target);
-                } catch (MalformedURLException e) {
-                    plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.invalid-url",
-                            "pack", pack.getName(),
-                            "url", pack.getUrl(),
-                            "hash", pack.getHash(),
-                            "error", e.getMessage()
-                    );
-                } catch (IOException e) {
-                    plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.failed-to-load-pack",
-                            "pack", pack.getName(),
-                            "url", pack.getUrl(),
-                            "hash", pack.getHash(),
-                            "error", e.getMessage()
-                    );
-                } finally {
-                    if (in != null) {
-                        try {
-                            in.close();
-                        } catch (IOException e) {
-                            plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.failed-to-load-pack",
-                                    "pack", pack.getName(),
-                                    "url", pack.getUrl(),
-                                    "hash", pack.getHash(),
-                                    "error", e.getMessage()
-                            );
-                            e.printStackTrace();
-                        }
-                    }
+                if (result.url != null && !result.url.equals(pack.getUrl())) {
+                    // A local file is served from its optimized copy now
+                    registry.packUrls.remove(pack.getUrl(), pack);
+                    hashCache.remove(pack.getUrl());
+                    pack.setUrl(result.url);
+                    registry.packUrls.put(pack.getUrl(), pack);
+                }
+                if (result.hash != null && setRawHash(registry, pack, result.hash)) {
+                    changed.add(pack);
+                }
+                if (result.hash != null) {
+                    pack.setValidators(result.etag, result.lastModified, result.contentLength);
+                    hashCache.put(pack);
                 }
             }
+            return changed;
+        });
+        for (ResourcePack pack : changed) {
+            if (pack.getFile() != null && packServer != null) {
+                packServer.invalidate(getServedPath(pack));
+            }
+        }
+        try {
+            hashCache.save();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Unable to save the hash cache! " + e.getMessage());
+        }
+        if (!changed.isEmpty()) {
+            plugin.runTask(this::buildComposites);
+        }
+        return changed;
+    }
 
-            if (changed > 0) {
-                plugin.sendMessage(sender, "generate-hashes.changed", "amount", String.valueOf(changed));
-                plugin.runTask(plugin::saveConfigChanges);
-            } else {
-                plugin.sendMessage(sender, "generate-hashes.none-changed");
+    /**
+     * Download a pack and generate its sha1 hash. This will respect the maximum amount
+     * of connections that are allowed to be open to a single host at the same time.
+     * @param sender            The player that executed the command, null if it was the console
+     * @param pack              The pack to download
+     * @param hostConnections   The semaphores limiting the connections per host
+     * @param quiet             Whether or not to only send messages about errors
+     * @return The result of the download or <tt>null</tt> if it couldn't be downloaded
+     */
+    private DownloadResult downloadHash(ResourcepacksPlayer sender, ResourcePack pack, Map<String, Semaphore> hostConnections, boolean quiet) {
+        long start = System.currentTimeMillis();
+        if (pack.getFile() != null && packServer != null) {
+            return hashLocalFile(sender, pack, quiet, start);
+        }
+        URL url;
+        try {
+            url = new URL(pack.getUrl());
+        } catch (MalformedURLException e) {
+            plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.invalid-url",
+                    "pack", pack.getName(),
+                    "url", pack.getUrl(),
+                    "hash", pack.getHash(),
+                    "error", e.getMessage()
+            );
+            return null;
+        }
+
+        Semaphore connections = hostConnections.computeIfAbsent(url.getHost().toLowerCase() + ":" + url.getPort(),
+                host -> new Semaphore(Math.max(1, plugin.getHashingHostConnections())));
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        try {
+            sendProgress(sender, quiet, "generate-hashes.downloading",
+                    "pack", pack.getName(),
+                    "url", pack.getUrl(),
+                    "hash", pack.getHash()
+            );
+            HttpURLConnection con = (HttpURLConnection) url.openConnection();
+            con.setRequestProperty("User-Agent", plugin.getName() + "/" + plugin.getVersion());
+            if (pack.getEtag() != null) {
+                con.setRequestProperty("If-None-Match", pack.getEtag());
             }
-        });
+            if (pack.getLastModified() != null) {
+                con.setRequestProperty("If-Modified-Since", pack.getLastModified());
+            }
+            if (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                con.disconnect();
+                sendProgress(sender, quiet, "generate-hashes.not-modified",
+                        "pack", pack.getName(),
+                        "url", pack.getUrl(),
+                        "hash", pack.getHash(),
+                        "time", String.valueOf(System.currentTimeMillis() - start)
+                );
+                return new DownloadResult(pack.getRawHash(), pack.getEtag(), pack.getLastModified(), pack.getContentLength());
+            }
+
+            String etag = con.getHeaderField("ETag");
+            String lastModified = con.getHeaderField("Last-Modified");
+            long contentLength = con.getContentLengthLong();
+            HashCache.Entry cached = hashCache.get(pack.getUrl());
+            if (cached != null && cached.matches(etag, lastModified, contentLength)) {
+                // Server doesn't support conditional requests but the file is the one we know
+                con.disconnect();
+                sendProgress(sender, quiet, "generate-hashes.not-modified",
+                        "pack", pack.getName(),
+                        "url", pack.getUrl(),
+                        "hash", BaseEncoding.base16().lowerCase().encode(cached.getHash()),
+                        "time", String.valueOf(System.currentTimeMillis() - start)
+                );
+                return new DownloadResult(cached.getHash(), etag, lastModified, contentLength);
+            }
+
+            DownloadResult result;
+            try (InputStream in = con.getInputStream()) {
+                result = new DownloadResult(hash(in), etag, lastModified, contentLength);
+            }
+            sendProgress(sender, quiet, "generate-hashes.hash-sum",
+                    "pack", pack.getName(),
+                    "url", pack.getUrl(),
+                    "hash", BaseEncoding.base16().lowerCase().encode(result.hash),
+                    "time", String.valueOf(System.currentTimeMillis() - start)
+            );
+            return result;
+        } catch (IOException e) {
+            plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.failed-to-load-pack",
+                    "pack", pack.getName(),
+                    "url", pack.getUrl(),
+                    "hash", pack.getHash(),
+                    "error", e.getMessage()
+            );
+        } finally {
+            connections.release();
+        }
+        return null;
+    }
+
+    /**
+     * Generate the sha1 hash of a pack that is served by the built-in webserver
+     * directly from its file. The file is only read if its size or modification time changed.
+     * If the optimizer is enabled then the optimized copy is written first if necessary and hashed instead.
+     * @param sender    The player that executed the command, null if it was the console
+     * @param pack      The pack to hash
+     * @param quiet     Whether or not to only send messages about errors
+     * @param start     The time at which the hashing started
+     * @return The result of the hashing or <tt>null</tt> if the file couldn't be read
+     */
+    private DownloadResult hashLocalFile(ResourcepacksPlayer sender, ResourcePack pack, boolean quiet, long start) {
+        File file = packServer.getFile(pack.getFile());
+        try {
+            if (file == null || !file.isFile()) {
+                throw new FileNotFoundException(pack.getFile());
+            }
+            String lastModified = String.valueOf(file.lastModified());
+            long size = file.length();
+            File served = getServedFile(pack, file);
+            String url = packServer.getUrl(getServedPath(pack));
+            if (lastModified.equals(pack.getLastModified()) && size == pack.getContentLength() && url.equals(pack.getUrl())) {
+                sendProgress(sender, quiet, "generate-hashes.not-modified",
+                        "pack", pack.getName(),
+                        "url", pack.getUrl(),
+                        "hash", pack.getHash(),
+                        "time", String.valueOf(System.currentTimeMillis() - start)
+                );
+                return new DownloadResult(pack.getRawHash(), null, lastModified, size);
+            }
+            DownloadResult result;
+            try (InputStream in = new FileInputStream(served)) {
+                result = new DownloadResult(hash(in), null, lastModified, size, url);
+            }
+            sendProgress(sender, quiet, "generate-hashes.hash-sum",
+                    "pack", pack.getName(),
+                    "url", url,
+                    "hash", BaseEncoding.base16().lowerCase().encode(result.hash),
+                    "time", String.valueOf(System.currentTimeMillis() - start)
+            );
+            return result;
+        } catch (IOException e) {
+            plugin.sendMessage(sender, Level.SEVERE, "generate-hashes.failed-to-load-pack",
+                    "pack", pack.getName(),
+                    "url", pack.getUrl(),
+                    "hash", pack.getHash(),
+                    "error", e.getMessage()
+            );
+        }
+        return null;
+    }
+
+    private void sendProgress(ResourcepacksPlayer sender, boolean quiet, String key, String... replacements) {
+        if (!quiet) {
+            plugin.sendMessage(sender, key, replacements);
+        }
+    }
+
+    /**
+     * The hash and the validators that a pack download returned
+     */
+    private static class DownloadResult {
+        private final byte[] hash;
+        private final String etag;
+        private final String lastModified;
+        private final long contentLength;
+        /**
+         * The url that the hashed file is served from if it differs from the pack's, only set for local files
+         */
+        private final String url;
+
+        private DownloadResult(byte[] hash, String etag, String lastModified, long contentLength) {
+            this(hash, etag, lastModified, contentLength, null);
+        }
+
+        private DownloadResult(byte[] hash, String etag, String lastModified, long contentLength, String url) {
+            this.hash = hash;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentLength = contentLength;
+            this.url = url;
+        }
+    }
+
+    /**
+     * Get the url that a player should download a pack from. If the pack is served by the
+     * built-in webserver and signed urls are enabled then this is a url only valid for that player.
+     * @param playerId  The UUID of the player
+     * @param pack      The pack to get the url of
+     * @return The url to send to the player
+     */
+    public String getPackUrl(UUID playerId, ResourcePack pack) {
+        if (pack.getFile() != null && packServer != null && packServer.getUrlSigner() != null) {
+            return packServer.getUrlSigner().sign(pack.getUrl(), playerId, pack.getRawHash());
+        }
+        return pack.getUrl();
+    }
+
+    /**
+     * Get the path of the file that is actually served for a pack with a local file
+     * @param pack  The pack
+     * @return The path relative to the webserver's folder, the optimized copy if the optimizer is enabled and the copy exists
+     */
+    public String getServedPath(ResourcePack pack) {
+        return getServedPath(pack.getFile());
+    }
+
+    private String getServedPath(String file) {
+        if (packOptimizer == null) {
+            return file;
+        }
+        // An outdated copy is still served until its replacement is written, the hash of the pack belongs to it
+        String optimized = PackOptimizer.FOLDER + "/" + file;
+        File served = packServer.getFile(optimized);
+        return served != null && served.isFile() ? optimized : file;
+    }
+
+    /**
+     * Get the file that is served for a pack and write the optimized copy of it if necessary.
+     * Optimizing can take a long time so this should never be called on the main thread!
+     * @param pack      The pack
+     * @param source    The pack's local file
+     * @return The file that is served
+     * @throws IOException When the pack could not be optimized
+     */
+    private File getServedFile(ResourcePack pack, File source) throws IOException {
+        if (packOptimizer == null) {
+            return source;
+        }
+        String path = PackOptimizer.FOLDER + "/" + pack.getFile();
+        File served = packServer.getFile(path);
+        if (served == null) {
+            throw new IOException("Invalid optimized path " + path);
+        }
+        packOptimizer.optimize(source, served);
+        return served;
+    }
+
+    /**
+     * Set the optimizer that should rewrite the local pack files before they get served
+     * @param packOptimizer The optimizer or <tt>null</tt> if the files should be served as-is
+     */
+    public void setPackOptimizer(PackOptimizer packOptimizer) {
+        this.packOptimizer = packOptimizer;
+    }
+
+    /**
+     * Get the optimizer that rewrites the local pack files before they get served
+     * @return The optimizer or <tt>null</tt> if the files are served as-is
+     */
+    public PackOptimizer getPackOptimizer() {
+        return packOptimizer;
+    }
+
+    /**
+     * Set the built-in webserver that serves the local pack files
+     * @param packServer The webserver or <tt>null</tt> if it isn't enabled
+     */
+    public void setPackServer(PackServer packServer) {
+        this.packServer = packServer;
+        this.packComposer = packServer != null ? new PackComposer(plugin, packServer) : null;
+    }
+
+    /**
+     * Get the built-in webserver that serves the local pack files
+     * @return The webserver or <tt>null</tt> if it isn't enabled
+     */
+    public PackServer getPackServer() {
+        return packServer;
+    }
+
+    /**
+     * Generate the sha1 hash of the data of a stream while reading it.
+     * This never holds more than the size of the buffer in memory.
+     * @param in    The stream to read from, will not get closed
+     * @return The sha1 hash of the stream's data
+     * @throws IOException When the stream could not be read
+     */
+    private byte[] hash(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not supported by this JVM?", e);
+        }
+        byte[] buffer = hashBuffer.get();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return digest.digest();
     }
 
     /**
@@ -863,19 +1570,42 @@ public class PackManager {
      * @return The pack format; <tt>-1</tt> if the player has an unknown version
      */
     public int getPackFormat(int version) {
-        if (version >= 348) { // pre 1.13 / 17w48a
-            return 4;
-        } else if (version >= 210) { // pre 1.11
-            return 3;
-        } else if (version >= 49) { // pre 1.9 / 15w31a
-            return 2;
-        } else if (version >= 47) { // pre 1.8
-            return 1;
-        } else if (version >= 0) {
-            return 0;
-        } else {
+        if (version < 0) {
             return -1;
         }
+        int index = Arrays.binarySearch(FORMAT_PROTOCOLS, version);
+        if (index < 0) {
+            index = -index - 2; // the entry with the highest protocol that is lower than the version
+        }
+        return index >= 0 ? FORMATS[index] : 0;
+    }
+
+    /**
+     * Load the table of protocol versions and pack formats from the pack-formats.properties file
+     * @return The protocol versions in ascending order and the formats at the same indexes
+     */
+    private static int[][] loadPackFormats() {
+        Properties properties = new Properties();
+        try (InputStream in = PackManager.class.getResourceAsStream("/pack-formats.properties")) {
+            if (in == null) {
+                throw new IllegalStateException("pack-formats.properties is missing!");
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load pack-formats.properties!", e);
+        }
+        TreeMap<Integer, Integer> formats = new TreeMap<>();
+        for (String protocol : properties.stringPropertyNames()) {
+            formats.put(Integer.parseInt(protocol.trim()), Integer.parseInt(properties.getProperty(protocol).trim()));
+        }
+        int[][] table = new int[2][formats.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : formats.entrySet()) {
+            table[0][i] = entry.getKey();
+            table[1][i] = entry.getValue();
+            i++;
+        }
+        return table;
     }
 
     /**
@@ -884,6 +1614,9 @@ public class PackManager {
      */
     public void setDirty(boolean dirty) {
         this.dirty = dirty;
+        if (dirty) {
+            invalidateDecisions();
+        }
     }
 
     /**
@@ -0,0 +1,338 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import de.themoep.resourcepacksplugin.core.zip.ZipWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Rewrites pack files into smaller copies. JSON files get minified, PNG images get their image data
+ * recompressed and text chunks removed, OS junk files get dropped and every entry is either
+ * stored or deflated depending on which is smaller. The files inside the pack stay equivalent.
+ * Entries are processed in parallel but always written in their original order so that
+ * the same input always results in the same output.
+ */
+public class PackOptimizer {
+
+    /**
+     * The folder inside the webserver's folder to store the optimized packs in
+     */
+    public static final String FOLDER = "optimized";
+
+    /**
+     * How many entries to process at once, limits how much of a pack is held in memory
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final ResourcepacksPlugin plugin;
+
+    /**
+     * Create a new pack optimizer
+     * @param plugin    The plugin instance
+     */
+    public PackOptimizer(ResourcepacksPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Write an optimized copy of a pack if the existing copy is missing or older than the pack.
+     * The copy gets the same modification time as the source to detect changes.
+     * @param source    The pack file to optimize
+     * @param target    The file to write the optimized pack to
+     * @return <tt>true</tt> if a new copy was written; <tt>false</tt> if the existing one was up to date
+     * @throws IOException When the source could not be read or the target could not be written
+     */
+    public boolean optimize(File source, File target) throws IOException {
+        if (target.isFile() && target.lastModified() == source.lastModified()) {
+            return false;
+        }
+        File parent = target.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create folder " + parent);
+        }
+
+        long start = System.currentTimeMillis();
+        File temp = new File(parent, target.getName() + ".tmp");
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, plugin.getHashingThreads()));
+        try (ZipFile zip = new ZipFile(source); ZipWriter writer = new ZipWriter(temp)) {
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            for (int i = 0; i < entries.size(); i += BATCH_SIZE) {
+                List<ForkJoinTask<Result>> tasks = new ArrayList<>();
+                for (ZipEntry entry : entries.subList(i, Math.min(i + BATCH_SIZE, entries.size()))) {
+                    if (!isJunk(entry.getName())) {
+                        tasks.add(pool.submit(() -> process(zip, entry)));
+                    }
+                }
+                for (ForkJoinTask<Result> task : tasks) {
+                    Result result = task.join();
+                    writer.add(result.name, result.method, result.crc, result.size, result.data, result.compressedSize);
+                }
+            }
+            writer.finish();
+        } catch (IOException | RuntimeException e) {
+            temp.delete();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (!target.setLastModified(source.lastModified())) {
+            plugin.getLogger().log(Level.WARNING, "Could not set modification time of " + target + ", it will be optimized again on the next check");
+        }
+        plugin.getLogger().log(Level.INFO, "Optimized " + source.getName() + " from " + source.length() + " to " + target.length() + " bytes in " + (System.currentTimeMillis() - start) + "ms");
+        return true;
+    }
+
+    private Result process(ZipFile zip, ZipEntry entry) {
+        byte[] data;
+        try (InputStream in = zip.getInputStream(entry)) {
+            data = ByteStreams.toByteArray(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + entry.getName() + ": " + e.getMessage(), e);
+        }
+
+        String name = entry.getName().toLowerCase();
+        if (name.endsWith(".json") || name.endsWith(".mcmeta")) {
+            data = minifyJson(data);
+        } else if (name.endsWith(".png")) {
+            data = optimizePng(data);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        byte[] compressed;
+        int compressedSize;
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            compressed = new byte[data.length + 64];
+            compressedSize = 0;
+            while (!deflater.finished() && compressedSize < data.length) {
+                compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+            }
+            if (!deflater.finished()) {
+                compressedSize = Integer.MAX_VALUE; // Deflating doesn't make it smaller
+            }
+        } finally {
+            deflater.end();
+        }
+
+        if (compressedSize >= data.length) {
+            return new Result(entry.getName(), ZipEntry.STORED, crc.getValue(), data.length, data, data.length);
+        }
+        return new Result(entry.getName(), ZipEntry.DEFLATED, crc.getValue(), data.length, compressed, compressedSize);
+    }
+
+    /**
+     * Check whether or not a file is some file that operating systems create and is not used by the game
+     * @param name  The path of the file
+     * @return <tt>true</tt> if the file can be dropped
+     */
+    static boolean isJunk(String name) {
+        String fileName = name.substring(name.lastIndexOf('/', name.length() - 2) + 1);
+        return name.startsWith("__MACOSX/")
+                || fileName.equals(".DS_Store")
+                || fileName.startsWith("._")
+                || fileName.equalsIgnoreCase("Thumbs.db")
+                || fileName.equalsIgnoreCase("desktop.ini");
+    }
+
+    /**
+     * Remove all whitespace outside of strings from JSON data.
+     * The data is returned unchanged if it contains comments or isn't terminated properly.
+     * @param data  The JSON data
+     * @return The minified data
+     */
+    static byte[] minifyJson(byte[] data) {
+        String json = new String(data, Charsets.UTF_8);
+        StringBuilder sb = new StringBuilder(json.length());
+        boolean inString = false;
+        boolean escaped = false;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                sb.append(c);
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+            } else if (c == '"') {
+                inString = true;
+                sb.append(c);
+            } else if (c == '/' || c == '#') {
+                return data; // Comments are allowed by the game's lenient parser, don't touch them
+            } else if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                sb.append(c);
+            }
+        }
+        if (inString) {
+            return data;
+        }
+        byte[] minified = sb.toString().getBytes(Charsets.UTF_8);
+        return minified.length < data.length ? minified : data;
+    }
+
+    /**
+     * Losslessly shrink a PNG image by recompressing its image data with the best compression
+     * and removing text and time chunks. Images that can't be parsed are returned unchanged.
+     * @param data  The PNG file
+     * @return The optimized PNG file
+     */
+    static byte[] optimizePng(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (data.length < PNG_SIGNATURE.length) {
+            return data;
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (data[i] != PNG_SIGNATURE[i]) {
+                return data;
+            }
+        }
+
+        ByteArrayOutputStream before = new ByteArrayOutputStream();
+        ByteArrayOutputStream after = new ByteArrayOutputStream();
+        ByteArrayOutputStream idat = new ByteArrayOutputStream();
+        boolean seenIdat = false;
+        int pos = PNG_SIGNATURE.length;
+        while (pos + 12 <= data.length) {
+            int length = buffer.getInt(pos);
+            if (length < 0 || pos + 12L + length > data.length) {
+                return data;
+            }
+            String type = new String(data, pos + 4, 4, Charsets.ISO_8859_1);
+            if ("IDAT".equals(type)) {
+                if (after.size() > 0) {
+                    return data; // Image data has to be consecutive
+                }
+                idat.write(data, pos + 8, length);
+                seenIdat = true;
+            } else if (!"tEXt".equals(type) && !"zTXt".equals(type) && !"iTXt".equals(type) && !"tIME".equals(type)) {
+                (seenIdat ? after : before).write(data, pos, length + 12);
+            }
+            pos += length + 12;
+            if ("IEND".equals(type)) {
+                break;
+            }
+        }
+        if (!seenIdat) {
+            return data;
+        }
+
+        byte[] raw;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(idat.toByteArray());
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream(idat.size() * 4);
+            byte[] chunk = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(chunk);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return data;
+                }
+                inflated.write(chunk, 0, read);
+            }
+            raw = inflated.toByteArray();
+        } catch (DataFormatException e) {
+            return data;
+        } finally {
+            inflater.end();
+        }
+
+        byte[] best = null;
+        for (int strategy : new int[] {Deflater.DEFAULT_STRATEGY, Deflater.FILTERED}) {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                deflater.setStrategy(strategy);
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream deflated = new ByteArrayOutputStream(idat.size());
+                byte[] chunk = new byte[64 * 1024];
+                while (!deflater.finished()) {
+                    deflated.write(chunk, 0, deflater.deflate(chunk));
+                }
+                if (best == null || deflated.size() < best.length) {
+                    best = deflated.toByteArray();
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        out.write(PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+        out.write(before.toByteArray(), 0, before.size());
+        byte[] header = ByteBuffer.allocate(8).putInt(best.length).put("IDAT".getBytes(Charsets.ISO_8859_1)).array();
+        out.write(header, 0, header.length);
+        out.write(best, 0, best.length);
+        CRC32 crc = new CRC32();
+        crc.update(header, 4, 4);
+        crc.update(best);
+        byte[] crcBytes = ByteBuffer.allocate(4).putInt((int) crc.getValue()).array();
+        out.write(crcBytes, 0, crcBytes.length);
+        out.write(after.toByteArray(), 0, after.size());
+
+        return out.size() < data.length ? out.toByteArray() : data;
+    }
+
+    private static class Result {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long size;
+        private final byte[] data;
+        private final int compressedSize;
+
+        private Result(String name, int method, long crc, long size, byte[] data, int compressedSize) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.compressedSize = compressedSize;
+        }
+    }
+}
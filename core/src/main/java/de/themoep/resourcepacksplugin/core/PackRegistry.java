@@ -0,0 +1,227 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable snapshot of the packs and assignments known to the {@link PackManager}.
+ * Readers can use a snapshot from any thread without locking, changes create a new snapshot
+ * via {@link #edit()} which then replaces the old one.
+ */
+class PackRegistry {
+
+    static final PackRegistry EMPTY = new Builder(null).build();
+
+    /**
+     * The maximum amount of resolved server/world names to cache, e.g. servers with dynamically
+     * created instance worlds could otherwise grow the cache forever
+     */
+    private static final int MAX_RESOLVED = 1024;
+
+    /**
+     * Cached for names that have no assignment
+     */
+    private static final PackAssignment NO_ASSIGNMENT = new PackAssignment("none");
+
+    /**
+     * packname -> ResourcePack
+     */
+    private final Map<String, ResourcePack> packNames;
+
+    /**
+     * packname -> composite ResourcePack, these are not part of the named packs
+     */
+    private final Map<String, ResourcePack> compositeNames;
+
+    /**
+     * packhash -> ResourcePack
+     */
+    private final Map<PackHash, ResourcePack> packHashes;
+
+    /**
+     * packurl -> ResourcePack
+     */
+    private final Map<String, ResourcePack> packUrls;
+
+    /**
+     * server-/worldname -> pack assignment
+     */
+    private final Map<String, PackAssignment> literalAssignments;
+
+    /**
+     * assignment name -> pack assignment with a regex
+     */
+    private final Map<String, PackAssignment> regexAssignments;
+
+    /**
+     * Matches names against all regex assignments at once
+     */
+    private final AssignmentMatcher regexMatcher;
+
+    /**
+     * server-/worldname -> resolved pack assignment, only valid for this snapshot. Limited to {@link #MAX_RESOLVED} names.
+     */
+    private final Map<String, PackAssignment> resolvedAssignments = new ConcurrentHashMap<>();
+
+    private PackRegistry(Builder builder, AssignmentMatcher regexMatcher) {
+        this.packNames = Collections.unmodifiableMap(builder.packNames);
+        this.compositeNames = Collections.unmodifiableMap(builder.compositeNames);
+        this.packHashes = Collections.unmodifiableMap(builder.packHashes);
+        this.packUrls = Collections.unmodifiableMap(builder.packUrls);
+        this.literalAssignments = Collections.unmodifiableMap(builder.literalAssignments);
+        this.regexAssignments = Collections.unmodifiableMap(builder.regexAssignments);
+        this.regexMatcher = regexMatcher;
+    }
+
+    /**
+     * Get a pack by its lowercase name, this includes composite packs
+     * @param name  The lowercase name
+     * @return The pack or <tt>null</tt> if there is none with that name
+     */
+    ResourcePack getByName(String name) {
+        ResourcePack pack = packNames.get(name);
+        return pack != null ? pack : compositeNames.get(name);
+    }
+
+    ResourcePack getByHash(PackHash hash) {
+        return packHashes.get(hash);
+    }
+
+    ResourcePack getByUrl(String url) {
+        return packUrls.get(url);
+    }
+
+    Map<String, ResourcePack> getPacks() {
+        return packNames;
+    }
+
+    Map<String, PackAssignment> getLiteralAssignments() {
+        return literalAssignments;
+    }
+
+    Map<String, PackAssignment> getRegexAssignments() {
+        return regexAssignments;
+    }
+
+    /**
+     * Get the assignment of a server/world. Results are cached for the lifetime of this snapshot.
+     * @param server    The name of the server/world
+     * @return The literal assignment, the first matching regex assignment or <tt>null</tt> if none matches
+     */
+    PackAssignment resolveAssignment(String server) {
+        PackAssignment assignment = resolvedAssignments.get(server);
+        if (assignment == null) {
+            assignment = literalAssignments.get(server.toLowerCase());
+            if (assignment == null) {
+                assignment = regexMatcher.match(server);
+            }
+            if (assignment == null) {
+                assignment = NO_ASSIGNMENT;
+            }
+            if (resolvedAssignments.size() >= MAX_RESOLVED) {
+                resolvedAssignments.clear();
+            }
+            resolvedAssignments.put(server, assignment);
+        }
+        return assignment != NO_ASSIGNMENT ? assignment : null;
+    }
+
+    /**
+     * Start building a new snapshot from the content of this one
+     * @return A builder holding copies of this snapshot's maps
+     */
+    Builder edit() {
+        return new Builder(this);
+    }
+
+    static class Builder {
+        private final PackRegistry previous;
+        final Map<String, ResourcePack> packNames;
+        final Map<String, ResourcePack> compositeNames;
+        final Map<PackHash, ResourcePack> packHashes;
+        final Map<String, ResourcePack> packUrls;
+        final Map<String, PackAssignment> literalAssignments;
+        final Map<String, PackAssignment> regexAssignments;
+
+        private Builder(PackRegistry previous) {
+            this.previous = previous;
+            if (previous != null) {
+                packNames = new LinkedHashMap<>(previous.packNames);
+                compositeNames = new HashMap<>(previous.compositeNames);
+                packHashes = new HashMap<>(previous.packHashes);
+                packUrls = new HashMap<>(previous.packUrls);
+                literalAssignments = new LinkedHashMap<>(previous.literalAssignments);
+                regexAssignments = new LinkedHashMap<>(previous.regexAssignments);
+            } else {
+                packNames = new LinkedHashMap<>();
+                compositeNames = new HashMap<>();
+                packHashes = new HashMap<>();
+                packUrls = new HashMap<>();
+                literalAssignments = new LinkedHashMap<>();
+                regexAssignments = new LinkedHashMap<>();
+            }
+        }
+
+        /**
+         * Check whether or not anything was changed in this builder compared to the snapshot it was created from
+         * @return <tt>true</tt> if an entry was added, removed or replaced by another object
+         */
+        boolean isChanged() {
+            return previous == null
+                    || !sameEntries(previous.packNames, packNames)
+                    || !sameEntries(previous.compositeNames, compositeNames)
+                    || !sameEntries(previous.packHashes, packHashes)
+                    || !sameEntries(previous.packUrls, packUrls)
+                    || !sameEntries(previous.literalAssignments, literalAssignments)
+                    || !sameEntries(previous.regexAssignments, regexAssignments);
+        }
+
+        private static <K, V> boolean sameEntries(Map<K, V> previous, Map<K, V> current) {
+            if (previous.size() != current.size()) {
+                return false;
+            }
+            for (Map.Entry<K, V> entry : current.entrySet()) {
+                if (previous.get(entry.getKey()) != entry.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Create the new snapshot. The regex matcher of the previous snapshot is reused if the regex assignments didn't change.
+         * @return The new snapshot
+         */
+        PackRegistry build() {
+            AssignmentMatcher matcher;
+            if (previous != null && new ArrayList<>(previous.regexAssignments.values()).equals(new ArrayList<>(regexAssignments.values()))) {
+                matcher = previous.regexMatcher;
+            } else {
+                matcher = new AssignmentMatcher(regexAssignments.values());
+            }
+            return new PackRegistry(this, matcher);
+        }
+    }
+}
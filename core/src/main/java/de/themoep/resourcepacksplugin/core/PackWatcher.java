@@ -0,0 +1,114 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.util.concurrent.RateLimiter;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Periodically checks the packs for changes and resends changed packs to the players that use them
+ */
+public class PackWatcher implements Runnable {
+
+    private final ResourcepacksPlugin plugin;
+    private final long interval;
+    private final RateLimiter resendLimiter;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private int taskId = -1;
+
+    /**
+     * Create a new pack watcher
+     * @param plugin            The plugin instance
+     * @param interval          The interval in seconds in which to check the packs, at least one second
+     * @param resendsPerSecond  How many players should get a changed pack resend per second, has to be positive
+     */
+    public PackWatcher(ResourcepacksPlugin plugin, long interval, double resendsPerSecond) {
+        this.plugin = plugin;
+        if (interval < 1) {
+            plugin.getLogger().log(Level.WARNING, "The watcher interval has to be at least 1 second! (Was " + interval + ")");
+            interval = 1;
+        }
+        if (!(resendsPerSecond > 0)) {
+            plugin.getLogger().log(Level.WARNING, "The watcher's resends per second have to be positive! (Was " + resendsPerSecond + ")");
+            resendsPerSecond = 1;
+        }
+        this.interval = interval;
+        this.resendLimiter = RateLimiter.create(resendsPerSecond);
+    }
+
+    /**
+     * Get the interval in which the packs get checked
+     * @return The interval in seconds
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Start checking the packs
+     */
+    public void start() {
+        if (taskId == -1) {
+            taskId = plugin.runAsyncTaskTimer(this, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop checking the packs
+     */
+    public void stop() {
+        if (taskId != -1) {
+            plugin.cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!plugin.isEnabled() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<ResourcePack> changed = plugin.getPackManager().refreshHashes(null, true);
+            if (changed.isEmpty()) {
+                return;
+            }
+            plugin.getLogger().log(Level.INFO, changed.size() + " packs changed, resending them to their users...");
+            plugin.runTask(plugin::saveConfigChanges);
+            for (ResourcePack pack : changed) {
+                for (UUID playerId : plugin.getUserManager().getPackUsers(pack)) {
+                    resendLimiter.acquire();
+                    plugin.runTask(() -> {
+                        // Check again as the player might have gotten another pack in the meantime
+                        if (pack.equals(plugin.getUserManager().getUserPack(playerId))) {
+                            plugin.sendPack(playerId, pack);
+                        }
+                    });
+                }
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+}
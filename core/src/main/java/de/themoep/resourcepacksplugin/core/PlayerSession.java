@@ -0,0 +1,204 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.themoep.resourcepacksplugin.core.events.IResourcePackSelectEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Data about an online player that is only kept while the player is connected
+ */
+public class PlayerSession {
+
+    /**
+     * The value of the pack format before it was looked up
+     */
+    public static final int UNKNOWN_FORMAT = Integer.MIN_VALUE;
+
+    private final UUID playerId;
+
+    /**
+     * The pack format of the player's client, it can't change while the player is connected
+     */
+    private volatile int packFormat = UNKNOWN_FORMAT;
+
+    /**
+     * The last pack decision of {@link PackManager#getApplicablePack(UUID, String)}, null if there is none
+     */
+    private volatile Decision decision = null;
+
+    /**
+     * The server/world that the player is on, permissions might differ between them
+     */
+    private volatile String permissionContext = "";
+
+    /**
+     * server-/worldname -> permission -> cached result of checking a pack permission
+     */
+    private final Map<String, Map<String, CachedPermission>> permissions = new ConcurrentHashMap<>();
+
+    PlayerSession(UUID playerId) {
+        this.playerId = playerId;
+    }
+
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * Get the pack format of the player's client
+     * @return The pack format or {@link #UNKNOWN_FORMAT} if it wasn't looked up yet
+     */
+    public int getPackFormat() {
+        return packFormat;
+    }
+
+    /**
+     * Set the pack format of the player's client
+     * @param packFormat The pack format
+     */
+    public void setPackFormat(int packFormat) {
+        this.packFormat = packFormat;
+    }
+
+    Decision getDecision() {
+        return decision;
+    }
+
+    void setDecision(Decision decision) {
+        this.decision = decision;
+    }
+
+    /**
+     * Forget the cached pack decision of this player, e.g. when the player's permissions changed
+     */
+    public void invalidateDecision() {
+        decision = null;
+    }
+
+    /**
+     * Check a permission of this player, the result is cached for a certain time
+     * @param permission    The permission to check
+     * @param cacheTime     How long the result should be cached in milliseconds
+     * @param check         The actual permission check which is used when there is no valid cached result
+     * @return <tt>true</tt> if the player has the permission; <tt>false</tt> if not
+     */
+    boolean checkPermission(String permission, long cacheTime, Predicate<String> check) {
+        long now = System.currentTimeMillis();
+        Map<String, CachedPermission> contextPermissions = permissions.computeIfAbsent(permissionContext, c -> new ConcurrentHashMap<>());
+        CachedPermission cached = contextPermissions.get(permission);
+        if (cached == null || cached.expires < now) {
+            cached = new CachedPermission(check.test(permission), now + cacheTime);
+            contextPermissions.put(permission, cached);
+        }
+        return cached.result;
+    }
+
+    /**
+     * Set the server/world that the player is on. Cached permission results are kept per server/world
+     * so that switching back and forth doesn't require checking them again.
+     * @param context   The name of the server/world
+     */
+    public void setPermissionContext(String context) {
+        this.permissionContext = context != null ? context : "";
+    }
+
+    /**
+     * Forget all cached permission results of this player, e.g. when the player's permissions changed
+     */
+    public void invalidatePermissions() {
+        permissions.clear();
+    }
+
+    private static class CachedPermission {
+        private final boolean result;
+        private final long expires;
+
+        private CachedPermission(boolean result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * The result of selecting the pack for a player together with everything it depended on
+     */
+    static class Decision {
+        private final long generation;
+        private final PackAssignment assignment;
+        private final ResourcePack previous;
+        private final int format;
+        private final ResourcePack[] restricted;
+        private final boolean[] permitted;
+        final ResourcePack pack;
+        final IResourcePackSelectEvent.Status status;
+        final boolean callEvent;
+
+        /**
+         * @param generation    The generation of the pack manager's state that this decision was made with
+         * @param assignment    The assignment of the server/world, null if there was none
+         * @param previous      The pack the player had before
+         * @param format        The pack format of the player
+         * @param restricted    The restricted packs whose permission was checked
+         * @param permitted     Whether or not the player had the permission of each restricted pack
+         * @param pack          The selected pack
+         * @param status        The status of the selection
+         * @param callEvent     Whether or not the select event should be called for this decision
+         */
+        Decision(long generation, PackAssignment assignment, ResourcePack previous, int format,
+                 ResourcePack[] restricted, boolean[] permitted,
+                 ResourcePack pack, IResourcePackSelectEvent.Status status, boolean callEvent) {
+            this.generation = generation;
+            this.assignment = assignment;
+            this.previous = previous;
+            this.format = format;
+            this.restricted = restricted;
+            this.permitted = permitted;
+            this.pack = pack;
+            this.status = status;
+            this.callEvent = callEvent;
+        }
+
+        /**
+         * Check whether or not this decision still applies
+         * @param plugin        The plugin to check the permissions with
+         * @param generation    The current generation of the pack manager's state
+         * @param assignment    The assignment of the server/world, null if there is none
+         * @param previous      The pack the player has
+         * @param format        The pack format of the player
+         * @param playerId      The UUID of the player
+         * @return <tt>true</tt> if nothing that the decision depended on changed
+         */
+        boolean isValid(ResourcepacksPlugin plugin, long generation, PackAssignment assignment, ResourcePack previous, int format, UUID playerId) {
+            if (this.generation != generation || this.assignment != assignment || this.previous != previous || this.format != format) {
+                return false;
+            }
+            for (int i = 0; i < restricted.length; i++) {
+                if (plugin.checkPackPermission(playerId, restricted[i]) != permitted[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -20,20 +20,20 @@ package de.themoep.resourcepacksplugin.core;
 
 import com.google.common.base.Charsets;
 import com.google.common.hash.Hashing;
-import com.google.common.io.BaseEncoding;
-
-import java.util.Arrays;
 
 /**
  * Created by Phoenix616 on 25.03.2015.
  */
 public class ResourcePack {
     private String name;
-    private String url;
-    private byte[] hash;
-    private int format;
-    private boolean restricted;
-    private String permission;
+    // Packs get read from other threads while they are updated so changes need to be visible directly
+    private volatile String url;
+    private volatile PackHash hash;
+    private volatile int format;
+    private volatile boolean restricted;
+    private volatile String permission;
+    private volatile Validators validators = Validators.NONE;
+    private volatile String file = null;
 
     /**
      * Object representation of a resourcepack set in the plugin's config file.
@@ -94,7 +94,7 @@ public class ResourcePack {
         if(hash != null && hash.length() == 40) {
             setHash(hash);
         } else {
-            this.hash = Hashing.sha1().hashString(url, Charsets.UTF_8).asBytes();
+            this.hash = PackHash.wrap(Hashing.sha1().hashString(url, Charsets.UTF_8).asBytes());
         }
         this.format = format;
         this.restricted = restricted;
@@ -126,19 +126,90 @@ public class ResourcePack {
      * @return The 40 digit lowercase hash
      */
     public String getHash() {
-        return BaseEncoding.base16().lowerCase().encode(hash);
+        return hash.toString();
+    }
+
+    /**
+     * Check whether or not the hash of this pack is only the placeholder that gets generated from the url
+     * when no hash was set
+     * @return <tt>true</tt> if no real hash is known; <tt>false</tt> if one was set or generated
+     */
+    public boolean hasPlaceholderHash() {
+        return hash.equals(Hashing.sha1().hashString(url, Charsets.UTF_8).asBytes());
     }
 
     void setHash(String hash) {
-        this.hash = BaseEncoding.base16().lowerCase().decode(hash.toLowerCase());
+        PackHash parsed = PackHash.fromHex(hash);
+        if (parsed == null) {
+            throw new IllegalArgumentException("Invalid hash " + hash);
+        }
+        this.hash = parsed;
     }
 
-    public byte[] getRawHash() {
+    /**
+     * Get the hash of this pack as the key used in the hash index
+     * @return The hash
+     */
+    public PackHash getHashKey() {
         return hash;
     }
 
+    /**
+     * Get the bytes of the hash of this pack. This is the internal array, don't modify it!
+     * @return The bytes of the hash
+     */
+    public byte[] getRawHash() {
+        return hash.getBytes();
+    }
+
     public void setRawHash(byte[] hash) {
-        this.hash = hash;
+        this.hash = PackHash.of(hash);
+    }
+
+    /**
+     * Get the ETag that the web server returned when the hash of this pack was last generated
+     * @return The ETag header value or <tt>null</tt> if none is known
+     */
+    public String getEtag() {
+        return validators.etag;
+    }
+
+    /**
+     * Get the Last-Modified value that the web server returned when the hash of this pack was last generated
+     * @return The Last-Modified header value or <tt>null</tt> if none is known
+     */
+    public String getLastModified() {
+        return validators.lastModified;
+    }
+
+    /**
+     * Get the size of the pack's file when its hash was last generated
+     * @return The size in bytes or <tt>-1</tt> if it is not known
+     */
+    public long getContentLength() {
+        return validators.contentLength;
+    }
+
+    /**
+     * Set the values that can be used to check whether or not the pack's file changed since its hash was generated
+     * @param etag          The ETag header value, <tt>null</tt> if none was provided
+     * @param lastModified  The Last-Modified header value, <tt>null</tt> if none was provided
+     * @param contentLength The size of the file in bytes, <tt>-1</tt> if unknown
+     */
+    void setValidators(String etag, String lastModified, long contentLength) {
+        this.validators = new Validators(etag, lastModified, contentLength);
+    }
+
+    /**
+     * Get the local file of this pack that is served by the built-in webserver
+     * @return The path of the file relative to the webserver's folder or <tt>null</tt> if the pack is hosted externally
+     */
+    public String getFile() {
+        return file;
+    }
+
+    void setFile(String file) {
+        this.file = file;
     }
 
     /**
@@ -232,13 +303,13 @@ public class ResourcePack {
                 return false;
             }
 
-            byte[] this$hash = this.getRawHash();
-            byte[] other$hash = other.getRawHash();
+            PackHash this$hash = this.getHashKey();
+            PackHash other$hash = other.getHashKey();
             if (this$hash == null) {
                 if (other$hash != null) {
                     return false;
                 }
-            } else if (!Arrays.equals(this$hash, other$hash)) {
+            } else if (!this$hash.equals(other$hash)) {
                 return false;
             }
 
@@ -256,4 +327,21 @@ public class ResourcePack {
                 "permission", getPermission()
         };
     }
+
+    /**
+     * The validators of a pack's file, replaced as a whole so that they are never seen half updated
+     */
+    private static class Validators {
+        private static final Validators NONE = new Validators(null, null, -1);
+
+        private final String etag;
+        private final String lastModified;
+        private final long contentLength;
+
+        private Validators(String etag, String lastModified, long contentLength) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentLength = contentLength;
+        }
+    }
 }
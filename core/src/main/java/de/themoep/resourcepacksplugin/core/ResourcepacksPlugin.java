@@ -25,6 +25,8 @@ import de.themoep.resourcepacksplugin.core.events.IResourcePackSendEvent;
 import java.io.File;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,18 +36,18 @@ import java.util.logging.Logger;
 public interface ResourcepacksPlugin {
 
     default void startupMessage() {
-        getLogger().log(getLogLevel(), "");
-        getLogger().log(getLogLevel(), "  If you enjoy my " + getName() + " plugin then you might also be");
-        getLogger().log(getLogLevel(), "  interested in the more advanced ForceResourcepacks version!");
-        getLogger().log(getLogLevel(), "");
-        getLogger().log(getLogLevel(), "  Besides getting additional features like WorldGuard support and");
-        getLogger().log(getLogLevel(), "  the ability to force a player to accept the resources pack you");
-        getLogger().log(getLogLevel(), "  will also support the continued development of this plugin!");
-        getLogger().log(getLogLevel(), "");
-        getLogger().log(getLogLevel(), "  Check it out here on spigotmc.org: https://s.moep.tv/frp");
-        getLogger().log(getLogLevel(), "");
-        getLogger().log(getLogLevel(), "  - Phoenix616");
-        getLogger().log(getLogLevel(), "");
+        logDebug("");
+        logDebug(() -> "  If you enjoy my " + getName() + " plugin then you might also be");
+        logDebug("  interested in the more advanced ForceResourcepacks version!");
+        logDebug("");
+        logDebug("  Besides getting additional features like WorldGuard support and");
+        logDebug("  the ability to force a player to accept the resources pack you");
+        logDebug("  will also support the continued development of this plugin!");
+        logDebug("");
+        logDebug("  Check it out here on spigotmc.org: https://s.moep.tv/frp");
+        logDebug("");
+        logDebug("  - Phoenix616");
+        logDebug("");
     }
 
     boolean loadConfig();
@@ -155,6 +157,23 @@ public interface ResourcepacksPlugin {
 
     Level getLogLevel();
 
+    /**
+     * Log a debug message with the configured {@link #getLogLevel()}
+     * @param message The message to log
+     */
+    default void logDebug(String message) {
+        getLogger().log(getLogLevel(), message);
+    }
+
+    /**
+     * Log a debug message with the configured {@link #getLogLevel()}.
+     * The message only gets built if that level is actually logged.
+     * @param message The supplier of the message to log
+     */
+    default void logDebug(Supplier<String> message) {
+        getLogger().log(getLogLevel(), message);
+    }
+
     ResourcepacksPlayer getPlayer(UUID playerId);
 
     ResourcepacksPlayer getPlayer(String playerName);
@@ -201,6 +220,67 @@ public interface ResourcepacksPlugin {
      */
     boolean checkPermission(UUID playerId, String perm);
 
+    /**
+     * Check whether or not a player is allowed to use a pack. The results of restricted packs
+     * are cached in the player's session for {@link #getPermissionCacheTime()} seconds.
+     * @param playerId The UUID of the player
+     * @param pack The pack to check
+     * @return <tt>true</tt> if the pack isn't restricted or the player has its permission; <tt>false</tt> if not
+     */
+    default boolean checkPackPermission(UUID playerId, ResourcePack pack) {
+        if (!pack.isRestricted()) {
+            return true;
+        }
+        int cacheTime = getPermissionCacheTime();
+        PlayerSession session = cacheTime > 0 && getUserManager() != null ? getUserManager().findSession(playerId) : null;
+        if (session == null) {
+            return checkPermission(playerId, pack.getPermission());
+        }
+        return session.checkPermission(pack.getPermission(), cacheTime * 1000L, perm -> checkPermission(playerId, perm));
+    }
+
+    /**
+     * Check whether or not a player is allowed to use a pack
+     * @param resourcepacksPlayer The player to check, <tt>null</tt> for the console
+     * @param pack The pack to check
+     * @return <tt>true</tt> if the pack isn't restricted or the player has its permission; <tt>false</tt> if not
+     */
+    default boolean checkPackPermission(ResourcepacksPlayer resourcepacksPlayer, ResourcePack pack) {
+        if (resourcepacksPlayer == null) {
+            return !pack.isRestricted() || checkPermission((ResourcepacksPlayer) null, pack.getPermission());
+        }
+        return checkPackPermission(resourcepacksPlayer.getUniqueId(), pack);
+    }
+
+    /**
+     * Forget the cached pack permission results of a player, should be called when the player's permissions changed
+     * @param playerId The UUID of the player
+     */
+    default void invalidatePermissions(UUID playerId) {
+        PlayerSession session = getUserManager() != null ? getUserManager().findSession(playerId) : null;
+        if (session != null) {
+            session.invalidatePermissions();
+        }
+    }
+
+    /**
+     * Set the server/world that a player is on, the cached permission results are kept separately for each one
+     * @param playerId  The UUID of the player
+     * @param context   The name of the server/world
+     */
+    default void setPermissionContext(UUID playerId, String context) {
+        PlayerSession session = getUserManager() != null ? getUserManager().findSession(playerId) : null;
+        if (session != null) {
+            session.setPermissionContext(context);
+        }
+    }
+
+    /**
+     * Get how long the results of pack permission checks should be cached
+     * @return The time in seconds; 0 or below disables the cache
+     */
+    int getPermissionCacheTime();
+
     /**
      * Get the format of the pack this player can maximally use
      * @param playerId The UUID of the player
@@ -246,6 +326,22 @@ public interface ResourcepacksPlugin {
      */
     int runAsyncTask(Runnable runnable);
 
+    /**
+     * Run a task asynchronously and repeat it periodically
+     * @param runnable  What to run
+     * @param delay     The delay before the first run
+     * @param period    The time between two runs
+     * @param unit      The unit of the delay and period
+     * @return The task id
+     */
+    int runAsyncTaskTimer(Runnable runnable, long delay, long period, TimeUnit unit);
+
+    /**
+     * Cancel a scheduled task
+     * @param taskId    The id of the task
+     */
+    void cancelTask(int taskId);
+
     /**
      * Save changes made on runtime to the config
      */
@@ -266,6 +362,12 @@ public interface ResourcepacksPlugin {
      */
     String getStoredPack(UUID playerId);
 
+    /**
+     * Get the store that the packs of the players are stored in
+     * @return The store or <tt>null</tt> if it could not be loaded
+     */
+    StoredPackStore getStoredPackStore();
+
     /**
      * Get whether or not the default /usepack behaviour is to apply temporary opr permanent
      * @return <tt>true</tt> if it's temporary, <tt>false</tt> if not
@@ -277,4 +379,16 @@ public interface ResourcepacksPlugin {
      * @return The time in seconds; 0 or below should disable that
      */
     int getPermanentPackRemoveTime();
+
+    /**
+     * Get the amount of packs that should get downloaded and hashed in parallel
+     * @return The amount of threads to use for generating hashes
+     */
+    int getHashingThreads();
+
+    /**
+     * Get the maximum amount of connections that should be opened to a single host while generating hashes
+     * @return The maximum amount of connections per host
+     */
+    int getHashingHostConnections();
 }
@@ -0,0 +1,65 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Storage for the packs that players stored permanently
+ */
+public interface StoredPackStore {
+
+    /**
+     * Get the pack that a player has stored
+     * @param playerId  The UUID of the player
+     * @return The name of the stored pack or <tt>null</tt> if the player has none
+     */
+    String get(UUID playerId);
+
+    /**
+     * Set the pack that a player has stored
+     * @param playerId  The UUID of the player
+     * @param packName  The name of the pack or <tt>null</tt> to remove it
+     */
+    void set(UUID playerId, String packName);
+
+    /**
+     * Load the data of a player into memory, called when the player connects
+     * @param playerId  The UUID of the player
+     */
+    default void loadPlayer(UUID playerId) {}
+
+    /**
+     * Remove the data of a player from memory, called when the player disconnects
+     * @param playerId  The UUID of the player
+     */
+    default void unloadPlayer(UUID playerId) {}
+
+    /**
+     * Write all changes that weren't persisted yet
+     * @throws IOException When the changes could not be written
+     */
+    void save() throws IOException;
+
+    /**
+     * Persist all changes and release the resources of this store
+     */
+    void close();
+}
@@ -18,6 +18,8 @@ package de.themoep.resourcepacksplugin.core;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -37,6 +39,21 @@ public class UserManager {
      * playerid -> logintime
      */
     private Map<UUID, Long> userPackTime = new ConcurrentHashMap<>();
+
+    /**
+     * playerid -> session data of online players
+     */
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * playerid -> time of the prefetch, of players that were prefetched during the login but didn't connect yet
+     */
+    private final Map<UUID, Long> prefetched = new ConcurrentHashMap<>();
+
+    /**
+     * How long to keep prefetched data of players that don't connect, e.g. because their login got denied
+     */
+    private static final long PREFETCH_TIMEOUT = 60 * 1000;
     
     /**
      * Manage user packs and settings
@@ -77,15 +94,126 @@ public class UserManager {
         return (previous == null) ? null : plugin.getPackManager().getByName(previous);
     }
     
+    /**
+     * Get all players that currently have a certain pack
+     * @param pack The resourcepack
+     * @return A list of the UUIDs of the players that have that pack
+     */
+    public List<UUID> getPackUsers(ResourcePack pack) {
+        List<UUID> users = new ArrayList<>();
+        for (Map.Entry<UUID, String> entry : userPackMap.entrySet()) {
+            if (pack.getName().equals(entry.getValue())) {
+                users.add(entry.getKey());
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Get the session of an online player, a new one is created if the player has none yet
+     * @param playerId The UUID of the player
+     * @return The session of the player
+     */
+    public PlayerSession getSession(UUID playerId) {
+        return sessions.computeIfAbsent(playerId, PlayerSession::new);
+    }
+
+    /**
+     * Get the session of a player without creating one
+     * @param playerId The UUID of the player
+     * @return The session or <tt>null</tt> if the player has none
+     */
+    public PlayerSession findSession(UUID playerId) {
+        return sessions.get(playerId);
+    }
+
+    /**
+     * Forget the cached permission results of all online players
+     */
+    public void invalidatePermissions() {
+        for (PlayerSession session : sessions.values()) {
+            session.invalidatePermissions();
+        }
+    }
+
+    /**
+     * Load the data of a player who is logging in so that applying the first pack only needs to read memory.
+     * This should be called asynchronously while the login is processed. If the player doesn't connect
+     * then the data gets discarded with {@link #discardPrefetch(UUID)} or after a minute.
+     * @param playerId The UUID of the player
+     */
+    public void prefetch(UUID playerId) {
+        discardExpiredPrefetches();
+        if (!sessions.containsKey(playerId)) {
+            prefetched.put(playerId, System.currentTimeMillis());
+        }
+        load(playerId);
+    }
+
+    private void load(UUID playerId) {
+        getSession(playerId);
+        StoredPackStore store = plugin.getStoredPackStore();
+        if (store != null) {
+            store.loadPlayer(playerId);
+        }
+    }
+
+    /**
+     * Drop the prefetched data of a player whose login got denied.
+     * This does nothing if the player already connected.
+     * @param playerId The UUID of the player
+     */
+    public void discardPrefetch(UUID playerId) {
+        if (prefetched.remove(playerId) == null) {
+            return;
+        }
+        sessions.remove(playerId);
+        StoredPackStore store = plugin.getStoredPackStore();
+        if (store != null) {
+            store.unloadPlayer(playerId);
+        }
+    }
+
+    /**
+     * Drop the prefetched data of players who didn't connect in time, e.g. because another plugin
+     * denied the login after it was prefetched or the player disconnected during the login
+     */
+    private void discardExpiredPrefetches() {
+        if (prefetched.isEmpty()) {
+            return;
+        }
+        long expired = System.currentTimeMillis() - PREFETCH_TIMEOUT;
+        for (Map.Entry<UUID, Long> entry : prefetched.entrySet()) {
+            if (entry.getValue() < expired) {
+                discardPrefetch(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * What should happen when a player connects?
+     * @param playerId The UUID of the player
+     */
+    public void onConnect(UUID playerId) {
+        prefetched.remove(playerId);
+        load(playerId); // Does nothing if it was already prefetched during the login
+    }
+
     /**
      * What should happen when a player disconnects?
      * @param playerId The UUID of the player
      */
     public void onDisconnect(UUID playerId) {
         if (checkStoredPack(playerId)) {
-            plugin.getLogger().log(plugin.getLogLevel(), "Removed stored pack from " + playerId + " as he logged out in under " + plugin.getPermanentPackRemoveTime() + " seconds after it got applied!");
+            plugin.logDebug(() -> "Removed stored pack from " + playerId + " as he logged out in under " + plugin.getPermanentPackRemoveTime() + " seconds after it got applied!");
         }
         userPackTime.remove(playerId);
+        prefetched.remove(playerId);
+        sessions.remove(playerId);
+        StoredPackStore store = plugin.getStoredPackStore();
+        if (store != null) {
+            store.unloadPlayer(playerId);
+        }
         plugin.clearPack(playerId); //call plugin method because that might send a clear info
     }
     
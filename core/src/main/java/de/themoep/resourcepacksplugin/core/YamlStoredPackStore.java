@@ -0,0 +1,181 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Keeps the packs that players stored in memory and writes them to the players.yml in the background.
+ * Changes get collected and written at once after an interval or when enough changes accumulated,
+ * the file is first written to a temporary file which then gets moved to the actual location.
+ */
+public class YamlStoredPackStore implements StoredPackStore {
+
+    private final ResourcepacksPlugin plugin;
+    private final File file;
+    private final int saveThreshold;
+
+    /**
+     * playerid -> packname
+     */
+    private final Map<UUID, String> packs = new ConcurrentHashMap<>();
+
+    /**
+     * The amount of changes that weren't written to the file yet
+     */
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Create a new store
+     * @param plugin        The plugin
+     * @param file          The file to write the stored packs to
+     * @param saveInterval  The interval in seconds in which changes get written
+     * @param saveThreshold The amount of changes after which they get written without waiting for the interval
+     */
+    public YamlStoredPackStore(ResourcepacksPlugin plugin, File file, int saveInterval, int saveThreshold) {
+        this.plugin = plugin;
+        this.file = file;
+        this.saveThreshold = Math.max(1, saveThreshold);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(plugin.getName() + " Stored Packs Writer")
+                .setDaemon(true)
+                .build());
+        int interval = Math.max(1, saveInterval);
+        executor.scheduleWithFixedDelay(this::saveQuietly, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Replace the packs in memory with ones that were loaded from the file
+     * @param packs The stored packs, playerid -> packname
+     */
+    public void loadAll(Map<UUID, String> packs) {
+        this.packs.clear();
+        this.packs.putAll(packs);
+    }
+
+    /**
+     * Get the pack that a player has stored
+     * @param playerId  The UUID of the player
+     * @return The name of the stored pack or <tt>null</tt> if the player has none
+     */
+    @Override
+    public String get(UUID playerId) {
+        return packs.get(playerId);
+    }
+
+    /**
+     * Set the pack that a player has stored. The change gets written to the file later.
+     * @param playerId  The UUID of the player
+     * @param packName  The name of the pack or <tt>null</tt> to remove it
+     */
+    @Override
+    public void set(UUID playerId, String packName) {
+        String previous = packName != null ? packs.put(playerId, packName) : packs.remove(playerId);
+        if (packName == null ? previous == null : packName.equals(previous)) {
+            return;
+        }
+        if (pendingChanges.incrementAndGet() == saveThreshold) {
+            try {
+                executor.execute(this::saveQuietly);
+            } catch (RejectedExecutionException e) {
+                // Already closed, the changes get written by close()
+            }
+        }
+    }
+
+    /**
+     * Write the stored packs to the file if there are any changes that weren't written yet
+     * @throws IOException When the file could not be written
+     */
+    @Override
+    public synchronized void save() throws IOException {
+        int changes = pendingChanges.getAndSet(0);
+        if (changes == 0) {
+            return;
+        }
+        try {
+            write(new HashMap<>(packs));
+        } catch (IOException e) {
+            pendingChanges.addAndGet(changes);
+            throw e;
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not save stored packs to " + file, e);
+        }
+    }
+
+    private void write(Map<UUID, String> packs) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create folder " + parent);
+        }
+        File temp = new File(parent, file.getName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), Charsets.UTF_8)) {
+            writer.write("players:");
+            writer.newLine();
+            for (Map.Entry<UUID, String> entry : packs.entrySet()) {
+                writer.write("  ");
+                writer.write(entry.getKey().toString());
+                writer.write(": '");
+                writer.write(entry.getValue().replace("'", "''"));
+                writer.write('\'');
+                writer.newLine();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stop the background writer and write all changes that weren't written yet
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveQuietly();
+    }
+}
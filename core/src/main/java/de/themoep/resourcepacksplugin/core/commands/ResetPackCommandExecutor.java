@@ -77,7 +77,8 @@ public class ResetPackCommandExecutor extends PluginCommandExecutor {
             }
             sendMessage(player, "success");
             String senderName = sender != null ? sender.getName() : "CONSOLE";
-            plugin.getLogger().log(plugin.getLogLevel(), senderName + " reset the pack of " + player.getName());
+            String playerName = player.getName();
+            plugin.logDebug(() -> senderName + " reset the pack of " + playerName);
         } else {
             if (player.equals(sender)) {
                 sendMessage(sender, "no-pack");
@@ -23,6 +23,8 @@ import de.themoep.resourcepacksplugin.core.PackAssignment;
 import de.themoep.resourcepacksplugin.core.ResourcePack;
 import de.themoep.resourcepacksplugin.core.ResourcepacksPlayer;
 import de.themoep.resourcepacksplugin.core.ResourcepacksPlugin;
+import de.themoep.resourcepacksplugin.core.webserver.PackCache;
+import de.themoep.resourcepacksplugin.core.webserver.PackServer;
 
 import java.util.Arrays;
 
@@ -67,6 +69,34 @@ public class ResourcepacksPluginCommandExecutor extends PluginCommandExecutor {
                         return true;
                     }
                 },
+                new PluginCommandExecutor(plugin, this, "webserver") {
+                    @Override
+                    boolean run(ResourcepacksPlayer sender, String[] args) {
+                        PackServer packServer = plugin.getPackManager().getPackServer();
+                        if (packServer == null) {
+                            sendMessage(sender, "not-enabled");
+                            return true;
+                        }
+                        sendMessage(sender, "info",
+                                "url", packServer.getPublicUrl(),
+                                "folder", packServer.getFolder().getPath()
+                        );
+                        PackCache cache = packServer.getCache();
+                        if (cache != null) {
+                            sendMessage(sender, "cache",
+                                    "entries", String.valueOf(cache.getEntryCount()),
+                                    "size", String.format("%.1f", cache.getSize() / 1024.0 / 1024.0),
+                                    "max-size", String.format("%.1f", cache.getMaxSize() / 1024.0 / 1024.0),
+                                    "hits", String.valueOf(cache.getHits()),
+                                    "misses", String.valueOf(cache.getMisses()),
+                                    "evictions", String.valueOf(cache.getEvictions())
+                            );
+                        } else {
+                            sendMessage(sender, "cache-disabled");
+                        }
+                        return true;
+                    }
+                },
                 new PluginCommandExecutor(plugin, this, "addpack <name> <url>") {
                     @Override
                     boolean run(ResourcepacksPlayer sender, String[] args) {
@@ -135,6 +165,7 @@ public class ResourcepacksPluginCommandExecutor extends PluginCommandExecutor {
                         }
 
                         if (save) {
+                            plugin.getPackManager().invalidateDecisions();
                             plugin.saveConfigChanges();
                         }
 
@@ -39,7 +39,7 @@ public class UsePackCommandExecutor extends PluginCommandExecutor {
         if (args.length > 0) {
             ResourcePack pack = plugin.getPackManager().getByName(args[0]);
             if (pack != null) {
-                if (!pack.isRestricted() || plugin.checkPermission(sender, pack.getPermission())) {
+                if (plugin.checkPackPermission(sender, pack)) {
                     String tempStr = null;
                     if (args.length > 1 && plugin.checkPermission(sender, permission + ".temporary")) {
                         tempStr = args[args.length - 1];
@@ -76,7 +76,8 @@ public class UsePackCommandExecutor extends PluginCommandExecutor {
                         }
                         sendMessage(player, "success", "pack", pack.getName());
                         String senderName = sender != null ? sender.getName() : "CONSOLE";
-                        plugin.getLogger().log(plugin.getLogLevel(), senderName + " set the pack of " + player.getName() + " to '" + pack.getName() + "'!");
+                        String playerName = player.getName();
+                        plugin.logDebug(() -> senderName + " set the pack of " + playerName + " to '" + pack.getName() + "'!");
                     } else {
                         sendMessage(sender, "already-in-use", "player", player.getName(), "pack", pack.getName());
                     }
@@ -93,7 +94,7 @@ public class UsePackCommandExecutor extends PluginCommandExecutor {
                 ResourcePack userPack = sender != null ? plugin.getUserManager().getUserPack(sender.getUniqueId()) : null;
                 List<ResourcePack> applicablePacks = sender == null ? packs : packs.stream()
                         .filter(pack -> pack.getFormat() <= plugin.getPlayerPackFormat(sender.getUniqueId())
-                                && (!pack.isRestricted() || plugin.checkPermission(sender, pack.getPermission())))
+                                && plugin.checkPackPermission(sender, pack))
                         .collect(Collectors.toList());
 
                 if (applicablePacks.size() > 0) {
@@ -0,0 +1,192 @@
+package de.themoep.resourcepacksplugin.core.webserver;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps the contents of the most recently served pack files memory-mapped.
+ * The total size of all cached files is limited, the least recently used ones get evicted first.
+ * Files that aren't cached yet get loaded in the background so that serving other files isn't blocked by it.
+ * <p>
+ * The size limit is a soft one: Java can't safely unmap a buffer that might still be in use by a transfer,
+ * so evicted and invalidated files only get unmapped once their buffers are garbage collected.
+ * Until then they still take up memory and on Windows their files can't be deleted.
+ */
+public class PackCache {
+
+    private final long maxSize;
+    private final Executor loader;
+
+    /**
+     * file path -> cached file, in access order
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * paths of the files that are currently being loaded
+     */
+    private final Set<String> loading = new HashSet<>();
+
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Create a new pack cache
+     * @param maxSize   The maximum amount of bytes to cache
+     * @param loader    The executor to load files that aren't cached yet with
+     */
+    public PackCache(long maxSize, Executor loader) {
+        this.maxSize = maxSize;
+        this.loader = loader;
+    }
+
+    /**
+     * Get the contents of a file from the cache. If it isn't cached or changed on disk
+     * then it gets loaded in the background and will be returned by later calls.
+     * @param file  The file to get
+     * @return A read-only buffer with the file's contents or <tt>null</tt> if it isn't loaded yet or too large to be cached
+     */
+    public synchronized ByteBuffer get(File file) {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        Entry entry = entries.get(file.getPath());
+        if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+            hits++;
+            return entry.buffer.duplicate();
+        }
+        misses++;
+        if (entry != null) {
+            remove(file.getPath());
+        }
+        if (length > maxSize || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        if (loading.add(file.getPath())) {
+            try {
+                loader.execute(() -> load(file, length, lastModified));
+            } catch (RejectedExecutionException e) {
+                loading.remove(file.getPath());
+            }
+        }
+        return null;
+    }
+
+    private void load(File file, long length, long lastModified) {
+        MappedByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.load();
+        } catch (IOException e) {
+            // The file gets served directly from the disk then
+        }
+        synchronized (this) {
+            loading.remove(file.getPath());
+            if (buffer == null || file.length() != length || file.lastModified() != lastModified) {
+                return;
+            }
+            remove(file.getPath());
+            entries.put(file.getPath(), new Entry(buffer.asReadOnlyBuffer(), length, lastModified));
+            size += length;
+
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (size > maxSize && it.hasNext()) {
+                size -= it.next().getValue().length;
+                it.remove();
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Remove a file from the cache
+     * @param file  The file to remove
+     * @return Whether or not the file was cached
+     */
+    public synchronized boolean invalidate(File file) {
+        return remove(file.getPath());
+    }
+
+    /**
+     * Remove all files from the cache
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private boolean remove(String path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            size -= entry.length;
+            return true;
+        }
+        return false;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static class Entry {
+        private final ByteBuffer buffer;
+        private final long length;
+        private final long lastModified;
+
+        private Entry(ByteBuffer buffer, long length, long lastModified) {
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
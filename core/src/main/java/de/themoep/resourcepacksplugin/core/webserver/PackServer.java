@@ -0,0 +1,569 @@
+package de.themoep.resourcepacksplugin.core.webserver;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.themoep.resourcepacksplugin.core.ResourcePack;
+import de.themoep.resourcepacksplugin.core.ResourcepacksPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+/**
+ * A minimal non-blocking HTTP/1.1 server that serves the pack files of a folder.
+ * File contents are sent with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * so that the operating system can copy them to the socket directly.
+ */
+public class PackServer implements Runnable {
+
+    private static final int MAX_REQUEST_SIZE = 8 * 1024;
+    private static final long MAX_TRANSFER_SIZE = 1024 * 1024;
+    private static final long IDLE_TIMEOUT = 30 * 1000;
+
+    private final ResourcepacksPlugin plugin;
+    private final File folder;
+    private final InetSocketAddress address;
+    private final String publicUrl;
+    private final PackCache cache;
+    private final ExecutorService cacheLoader;
+    private UrlSigner urlSigner = null;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running = false;
+    private long lastIdleCheck = 0;
+
+    /**
+     * Create a new pack server
+     * @param plugin    The plugin instance
+     * @param folder    The folder to serve the files from
+     * @param host      The address to listen on
+     * @param port      The port to listen on
+     * @param publicUrl The url under which the players can reach this server
+     * @param cacheSize The maximum amount of bytes of pack files to keep in memory, <tt>0</tt> to disable the cache
+     */
+    public PackServer(ResourcepacksPlugin plugin, File folder, String host, int port, String publicUrl, long cacheSize) {
+        this.plugin = plugin;
+        this.folder = folder.getAbsoluteFile();
+        this.address = new InetSocketAddress(host, port);
+        this.publicUrl = publicUrl.endsWith("/") ? publicUrl.substring(0, publicUrl.length() - 1) : publicUrl;
+        if (cacheSize > 0) {
+            cacheLoader = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat(plugin.getName() + " Pack Cache Loader")
+                    .setDaemon(true)
+                    .build());
+            cache = new PackCache(cacheSize, cacheLoader);
+        } else {
+            cacheLoader = null;
+            cache = null;
+        }
+    }
+
+    /**
+     * Start listening for connections
+     * @throws IOException When the server could not be bound to its address
+     */
+    public void start() throws IOException {
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Could not create folder " + folder);
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.bind(address, 4096);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        thread = new Thread(this, plugin.getName() + " Pack Server");
+        thread.setDaemon(true);
+        thread.start();
+        plugin.getLogger().log(Level.INFO, "Serving packs from " + folder + " on " + address + " (" + publicUrl + ")");
+    }
+
+    /**
+     * Stop the server and close all connections
+     */
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (thread != null) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (cacheLoader != null) {
+            cacheLoader.shutdownNow();
+        }
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get a file in the served folder
+     * @param name  The path of the file relative to the served folder
+     * @return The file or <tt>null</tt> if the path points outside of the served folder
+     */
+    public File getFile(String name) {
+        try {
+            File file = new File(folder, name).getCanonicalFile();
+            if (file.getPath().startsWith(folder.getCanonicalPath() + File.separator)) {
+                return file;
+            }
+        } catch (IOException ignored) {}
+        return null;
+    }
+
+    /**
+     * Get the public url of a file in the served folder
+     * @param name  The path of the file relative to the served folder
+     * @return The url under which players can download the file
+     */
+    public String getUrl(String name) {
+        StringBuilder url = new StringBuilder(publicUrl);
+        try {
+            for (String segment : name.replace(File.separatorChar, '/').split("/")) {
+                if (!segment.isEmpty()) {
+                    url.append('/').append(URLEncoder.encode(segment, "UTF-8").replace("+", "%20"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e); // UTF-8 is always supported
+        }
+        return url.toString();
+    }
+
+    /**
+     * Remove a file from the cache, it will be read from the disk again on the next request
+     * @param name  The path of the file relative to the served folder
+     */
+    public void invalidate(String name) {
+        File file = getFile(name);
+        if (cache != null && file != null) {
+            cache.invalidate(file);
+        }
+    }
+
+    /**
+     * Set the signer that should be used to require per-player download urls
+     * @param urlSigner The url signer or <tt>null</tt> if every file should be freely downloadable
+     */
+    public void setUrlSigner(UrlSigner urlSigner) {
+        this.urlSigner = urlSigner;
+    }
+
+    /**
+     * Get the signer that is used to create and check per-player download urls
+     * @return The url signer or <tt>null</tt> if urls aren't signed
+     */
+    public UrlSigner getUrlSigner() {
+        return urlSigner;
+    }
+
+    /**
+     * Get the cache of the served files
+     * @return The cache or <tt>null</tt> if caching is disabled
+     */
+    public PackCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Get the url under which players can reach this server
+     * @return The public url
+     */
+    public String getPublicUrl() {
+        return publicUrl;
+    }
+
+    /**
+     * Get the folder that this server serves files from
+     * @return The served folder
+     */
+    public File getFolder() {
+        return folder;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(1000);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key);
+                            }
+                        }
+                    } catch (IOException e) {
+                        plugin.logDebug(() -> "Error while serving pack: " + e.getMessage());
+                        close(key);
+                    }
+                }
+                closeIdle();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Error in pack server! Stopping it.", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        Connection con = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(con.request) == -1) {
+            close(key);
+            return;
+        }
+        con.lastActivity = System.currentTimeMillis();
+        handleRequest(key, con);
+    }
+
+    /**
+     * Check whether a full request is in the buffer and if so start the response
+     */
+    private void handleRequest(SelectionKey key, Connection con) throws IOException {
+        int end = findHeaderEnd(con.request);
+        if (end == -1) {
+            if (!con.request.hasRemaining()) {
+                respondError(key, con, 431, "Request Header Fields Too Large");
+            }
+            return;
+        }
+
+        String head = new String(con.request.array(), 0, end, Charsets.ISO_8859_1);
+        con.request.flip();
+        con.request.position(end + 4);
+        con.request.compact();
+
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            respondError(key, con, 400, "Bad Request");
+            return;
+        }
+        String method = requestLine[0];
+        String target = requestLine[1];
+        con.keepAlive = "HTTP/1.1".equals(requestLine[2]);
+        String range = null;
+        String ifNoneMatch = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon == -1) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if ("Connection".equalsIgnoreCase(name)) {
+                con.keepAlive = con.keepAlive ? !"close".equalsIgnoreCase(value) : "keep-alive".equalsIgnoreCase(value);
+            } else if ("Range".equalsIgnoreCase(name)) {
+                range = value;
+            } else if ("If-None-Match".equalsIgnoreCase(name)) {
+                ifNoneMatch = value;
+            }
+        }
+
+        boolean headOnly = "HEAD".equals(method);
+        if (!headOnly && !"GET".equals(method)) {
+            respondError(key, con, 405, "Method Not Allowed");
+            return;
+        }
+
+        int query = target.indexOf('?');
+        String path = decodePath(query > -1 ? target.substring(0, query) : target);
+        if (path == null) {
+            respondError(key, con, 400, "Bad Request");
+            return;
+        }
+        File file = getFile(path);
+        if (file == null || !file.isFile() || !file.canRead()) {
+            respondError(key, con, 404, "Not Found");
+            return;
+        }
+
+        if (urlSigner != null) {
+            ResourcePack pack = plugin.getPackManager().getByUrl(getUrl(path));
+            if (pack == null || !urlSigner.verify(query > -1 ? target.substring(query + 1) : null, pack.getRawHash())) {
+                respondError(key, con, 403, "Forbidden");
+                return;
+            }
+        }
+
+        ByteBuffer cached = cache != null && !headOnly ? cache.get(file) : null;
+        long length = cached != null ? cached.capacity() : file.length();
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(file.lastModified()) + "\"";
+        if (etag.equals(ifNoneMatch)) {
+            respond(key, con, 304, "Not Modified", etag, file.lastModified(), null, null, 0, 0, null);
+            return;
+        }
+
+        long start = 0;
+        long count = length;
+        String contentRange = null;
+        int status = 200;
+        if (range != null && range.startsWith("bytes=") && range.indexOf(',') == -1) {
+            String spec = range.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            try {
+                if (dash == 0) {
+                    long suffix = Long.parseLong(spec.substring(1));
+                    start = Math.max(0, length - suffix);
+                } else if (dash > 0) {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash < spec.length() - 1) {
+                        count = Math.min(length - 1, Long.parseLong(spec.substring(dash + 1))) - start + 1;
+                    } else {
+                        count = length - start;
+                    }
+                }
+                if (dash == -1 || start >= length || count <= 0) {
+                    con.keepAlive = false;
+                    respond(key, con, 416, "Range Not Satisfiable", null, 0, null, null, 0, 0, "bytes */" + length);
+                    return;
+                }
+                if (dash == 0) {
+                    count = length - start;
+                }
+                status = 206;
+                contentRange = "bytes " + start + "-" + (start + count - 1) + "/" + length;
+            } catch (NumberFormatException e) {
+                // Invalid range, just send the whole file
+                start = 0;
+                count = length;
+            }
+        }
+
+        FileChannel fileChannel = null;
+        if (cached != null) {
+            cached.position((int) start);
+            cached.limit((int) (start + count));
+        } else if (!headOnly) {
+            fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        respond(key, con, status, status == 206 ? "Partial Content" : "OK", etag, file.lastModified(), cached, fileChannel, start, count, contentRange);
+    }
+
+    private void respondError(SelectionKey key, Connection con, int status, String message) throws IOException {
+        con.keepAlive = false;
+        respond(key, con, status, message, null, 0, null, null, 0, 0, null);
+    }
+
+    private void respond(SelectionKey key, Connection con, int status, String message, String etag, long lastModified, ByteBuffer body, FileChannel file, long start, long count, String contentRange) throws IOException {
+        StringBuilder header = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(message).append("\r\n")
+                .append("Server: ").append(plugin.getName()).append('/').append(plugin.getVersion()).append("\r\n")
+                .append("Accept-Ranges: bytes\r\n");
+        if (etag != null) {
+            header.append("ETag: ").append(etag).append("\r\n")
+                    .append("Last-Modified: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lastModified).atOffset(ZoneOffset.UTC))).append("\r\n");
+        }
+        if (contentRange != null) {
+            header.append("Content-Range: ").append(contentRange).append("\r\n");
+        }
+        if (status == 200 || status == 206) {
+            header.append("Content-Type: application/zip\r\n");
+        }
+        header.append("Content-Length: ").append(status == 304 ? 0 : count).append("\r\n")
+                .append("Connection: ").append(con.keepAlive ? "keep-alive" : "close").append("\r\n")
+                .append("\r\n");
+        con.header = ByteBuffer.wrap(header.toString().getBytes(Charsets.ISO_8859_1));
+        con.body = body;
+        con.file = file;
+        con.position = start;
+        con.remaining = file != null ? count : 0;
+        key.interestOps(SelectionKey.OP_WRITE);
+        write(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        Connection con = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (con.header != null) {
+            if (channel.write(con.header) > 0) {
+                con.lastActivity = System.currentTimeMillis();
+            }
+            if (con.header.hasRemaining()) {
+                return;
+            }
+            con.header = null;
+        }
+        if (con.body != null) {
+            while (con.body.hasRemaining()) {
+                if (channel.write(con.body) <= 0) {
+                    return; // Socket buffer is full, wait until we can write again
+                }
+                con.lastActivity = System.currentTimeMillis();
+            }
+            con.body = null;
+        }
+        while (con.remaining > 0) {
+            long transferred = con.file.transferTo(con.position, Math.min(con.remaining, MAX_TRANSFER_SIZE), channel);
+            if (transferred <= 0) {
+                return; // Socket buffer is full, wait until we can write again
+            }
+            con.position += transferred;
+            con.remaining -= transferred;
+            con.lastActivity = System.currentTimeMillis();
+        }
+        con.closeFile();
+        if (!con.keepAlive) {
+            close(key);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        if (con.request.position() > 0) {
+            handleRequest(key, con); // Pipelined request
+        }
+    }
+
+    private void closeIdle() {
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheck < 1000) {
+            return;
+        }
+        lastIdleCheck = now;
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection && now - ((Connection) key.attachment()).lastActivity > IDLE_TIMEOUT) {
+                close(key);
+            }
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        if (key.attachment() instanceof Connection) {
+            ((Connection) key.attachment()).closeFile();
+        }
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Decode the percent-encoded path of a request. Unlike {@link java.net.URLDecoder} this keeps '+' as it is
+     * as it only stands for a space in form data and not in paths.
+     * @param path  The encoded path as read from the request head
+     * @return The decoded path or <tt>null</tt> if it isn't validly encoded
+     */
+    static String decodePath(String path) {
+        byte[] bytes = new byte[path.length()];
+        int length = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= path.length()) {
+                    return null;
+                }
+                int high = Character.digit(path.charAt(i + 1), 16);
+                int low = Character.digit(path.charAt(i + 2), 16);
+                if (high == -1 || low == -1) {
+                    return null;
+                }
+                bytes[length++] = (byte) (high << 4 | low);
+                i += 2;
+            } else {
+                bytes[length++] = (byte) c; // The request head was read as ISO-8859-1 so this is the original byte
+            }
+        }
+        return new String(bytes, 0, length, Charsets.UTF_8);
+    }
+
+    private static int findHeaderEnd(ByteBuffer buffer) {
+        byte[] array = buffer.array();
+        for (int i = 0; i + 3 < buffer.position(); i++) {
+            if (array[i] == '\r' && array[i + 1] == '\n' && array[i + 2] == '\r' && array[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class Connection {
+        private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+        private ByteBuffer header = null;
+        private ByteBuffer body = null;
+        private FileChannel file = null;
+        private long position = 0;
+        private long remaining = 0;
+        private boolean keepAlive = false;
+        /**
+         * The last time a request was read or a part of a response was written
+         */
+        private long lastActivity = System.currentTimeMillis();
+
+        private void closeFile() {
+            body = null;
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {}
+                file = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package de.themoep.resourcepacksplugin.core.webserver;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Creates and validates download urls that are only valid for one player and a limited time.
+ * The signature is a HMAC-SHA256 over the player's UUID, the pack's hash and the expiry time.
+ */
+public class UrlSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SIGNATURE_LENGTH = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SecretKeySpec key;
+    private final long lifetime;
+
+    private final ThreadLocal<Mac> mac;
+    private final ThreadLocal<byte[]> signature = ThreadLocal.withInitial(() -> new byte[SIGNATURE_LENGTH]);
+
+    /**
+     * Create a new url signer
+     * @param secret    The secret to sign the urls with, a random one will be used if it is empty
+     * @param lifetime  How many seconds a signed url should stay valid
+     */
+    public UrlSigner(String secret, long lifetime) {
+        byte[] keyBytes;
+        if (secret == null || secret.isEmpty()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(Charsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.lifetime = lifetime;
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new IllegalStateException(ALGORITHM + " is not supported by this JVM?", e);
+            }
+        });
+    }
+
+    /**
+     * Create a signed url for a player
+     * @param url       The url of the pack
+     * @param playerId  The UUID of the player that should be able to download the pack
+     * @param hash      The sha1 hash of the pack
+     * @return The url with the player's token appended
+     */
+    public String sign(String url, UUID playerId, byte[] hash) {
+        long expiry = System.currentTimeMillis() / 1000 + lifetime;
+        byte[] sig = sign(playerId.getMostSignificantBits(), playerId.getLeastSignificantBits(), hash, expiry);
+
+        StringBuilder sb = new StringBuilder(url.length() + 3 + 32 + 3 + 20 + 3 + SIGNATURE_LENGTH * 2);
+        sb.append(url).append(url.indexOf('?') > -1 ? '&' : '?').append("p=");
+        appendHex(sb, playerId.getMostSignificantBits());
+        appendHex(sb, playerId.getLeastSignificantBits());
+        sb.append("&e=").append(expiry).append("&s=");
+        for (byte b : sig) {
+            sb.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check whether or not the token in a url's query is valid for a pack
+     * @param query The query string of the requested url
+     * @param hash  The sha1 hash of the requested pack
+     * @return <tt>true</tt> if the token is valid and didn't expire yet; <tt>false</tt> if not
+     */
+    public boolean verify(String query, byte[] hash) {
+        if (query == null) {
+            return false;
+        }
+        String player = null;
+        String expiry = null;
+        String sig = null;
+        for (String param : query.split("&")) {
+            if (param.startsWith("p=")) {
+                player = param.substring(2);
+            } else if (param.startsWith("e=")) {
+                expiry = param.substring(2);
+            } else if (param.startsWith("s=")) {
+                sig = param.substring(2);
+            }
+        }
+        if (player == null || player.length() != 32 || expiry == null || sig == null || sig.length() != SIGNATURE_LENGTH * 2) {
+            return false;
+        }
+        try {
+            long expiryTime = Long.parseLong(expiry);
+            if (expiryTime < System.currentTimeMillis() / 1000) {
+                return false;
+            }
+            long most = Long.parseUnsignedLong(player.substring(0, 16), 16);
+            long least = Long.parseUnsignedLong(player.substring(16), 16);
+            byte[] provided = new byte[SIGNATURE_LENGTH];
+            for (int i = 0; i < provided.length; i++) {
+                provided[i] = (byte) Integer.parseInt(sig.substring(i * 2, i * 2 + 2), 16);
+            }
+            return MessageDigest.isEqual(provided, sign(most, least, hash, expiryTime));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Generate the signature, the returned array is reused by following calls on the same thread!
+     */
+    private byte[] sign(long most, long least, byte[] hash, long expiry) {
+        Mac mac = this.mac.get();
+        updateLong(mac, most);
+        updateLong(mac, least);
+        mac.update(hash);
+        updateLong(mac, expiry);
+        byte[] sig = signature.get();
+        try {
+            mac.doFinal(sig, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e); // Buffer always has the correct length
+        }
+        return sig;
+    }
+
+    private static void updateLong(Mac mac, long value) {
+        for (int i = 56; i >= 0; i -= 8) {
+            mac.update((byte) (value >> i));
+        }
+    }
+
+    private static void appendHex(StringBuilder sb, long value) {
+        for (int i = 60; i >= 0; i -= 4) {
+            sb.append(HEX[(int) (value >> i) & 0xF]);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package de.themoep.resourcepacksplugin.core.zip;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * The entries of a zip file as listed in its central directory.
+ * This only reads the central directory, the data of the entries is never inflated.
+ */
+public class ZipIndex {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    static final int FLAG_ENCRYPTED = 1;
+    static final int FLAG_UTF8 = 1 << 11;
+
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final Map<String, Entry> entries;
+
+    private ZipIndex(File file, long length, long lastModified, Map<String, Entry> entries) {
+        this.file = file;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Read the index of a zip file
+     * @param file  The zip file
+     * @return The index of the file
+     * @throws IOException When the file could not be read, is no valid zip file or uses unsupported features like ZIP64
+     */
+    public static ZipIndex read(File file) throws IOException {
+        long lastModified = file.lastModified();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+
+            // Find the end of central directory record, it's followed by a comment of up to 65535 bytes
+            int tailLength = (int) Math.min(length, END_SIZE + 0xFFFF);
+            ByteBuffer tail = read(channel, length - tailLength, tailLength);
+            int end = -1;
+            for (int i = tailLength - END_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_SIGNATURE) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1) {
+                throw new ZipException("No end of central directory found in " + file);
+            }
+            int count = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+            if (count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 files are not supported (" + file + ")");
+            }
+            if (directoryOffset + directorySize > length) {
+                throw new ZipException("Invalid central directory in " + file);
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                if (pos + CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid central directory entry in " + file);
+                }
+                int flags = directory.getShort(pos + 8) & 0xFFFF;
+                int method = directory.getShort(pos + 10) & 0xFFFF;
+                long crc = directory.getInt(pos + 16) & 0xFFFFFFFFL;
+                long compressedSize = directory.getInt(pos + 20) & 0xFFFFFFFFL;
+                long size = directory.getInt(pos + 24) & 0xFFFFFFFFL;
+                int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+                int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+                int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+                long localHeaderOffset = directory.getInt(pos + 42) & 0xFFFFFFFFL;
+                if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                    throw new ZipException("ZIP64 entries are not supported (" + file + ")");
+                }
+                if ((flags & FLAG_ENCRYPTED) != 0) {
+                    throw new ZipException("Encrypted entries are not supported (" + file + ")");
+                }
+                byte[] nameBytes = new byte[nameLength];
+                directory.position(pos + CENTRAL_HEADER_SIZE);
+                directory.get(nameBytes);
+                Charset charset = (flags & FLAG_UTF8) != 0 ? Charsets.UTF_8 : Charsets.ISO_8859_1;
+                String name = new String(nameBytes, charset);
+                entries.putIfAbsent(name, new Entry(name, nameBytes, flags & FLAG_UTF8, method, crc, compressedSize, size, localHeaderOffset));
+                pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            }
+            return new ZipIndex(file, length, lastModified, entries);
+        }
+    }
+
+    static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Check whether or not the file of this index changed since it was read
+     * @return <tt>true</tt> if the size or modification time differs; <tt>false</tt> if it looks the same
+     */
+    public boolean isOutdated() {
+        return file.length() != length || file.lastModified() != lastModified;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get an entry by its path
+     * @param name  The path of the entry
+     * @return The entry or <tt>null</tt> if the file has no such entry
+     */
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Get all entries in the order of the central directory
+     * @return The entries of the file
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public static class Entry {
+        private final String name;
+        private final byte[] nameBytes;
+        private final int flags;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(String name, byte[] nameBytes, int flags, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.nameBytes = nameBytes;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        /**
+         * Get the position of this entry's compressed data in its file
+         * @param channel   The channel of the file this entry is from
+         * @return The offset of the data
+         * @throws IOException When the local header could not be read or is invalid
+         */
+        long getDataOffset(FileChannel channel) throws IOException {
+            ByteBuffer header = read(channel, localHeaderOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header of " + name);
+            }
+            return localHeaderOffset + LOCAL_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        byte[] getNameBytes() {
+            return nameBytes;
+        }
+
+        int getFlags() {
+            return flags;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
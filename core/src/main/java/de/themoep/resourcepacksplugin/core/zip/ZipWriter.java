@@ -0,0 +1,206 @@
+package de.themoep.resourcepacksplugin.core.zip;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.base.Charsets;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Writes zip files by copying the compressed data of entries from other zip files as-is
+ * or by adding data that was already compressed.
+ * All headers are written with the same fixed values (time, attributes, no extra fields)
+ * so that the same entries in the same order always result in a byte-identical file.
+ */
+public class ZipWriter implements Closeable {
+
+    /**
+     * 2010-01-01 00:00:00 in MS-DOS format
+     */
+    private static final int DOS_DATE = ((2010 - 1980) << 9) | (1 << 5) | 1;
+    private static final int DOS_TIME = 0;
+    private static final int VERSION = 20;
+
+    private final FileChannel channel;
+    private final List<Written> written = new ArrayList<>();
+    private long offset = 0;
+    private boolean finished = false;
+
+    /**
+     * Create a new zip file, an existing file will be overwritten
+     * @param file  The file to write to
+     * @throws IOException When the file could not be opened
+     */
+    public ZipWriter(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Copy an entry from another zip file without inflating it
+     * @param entry     The entry to copy
+     * @param source    The channel of the zip file that the entry is from
+     * @throws IOException When the entry could not be read or written
+     */
+    public void copy(ZipIndex.Entry entry, FileChannel source) throws IOException {
+        long dataOffset = entry.getDataOffset(source);
+        writeLocalHeader(new Written(entry.getNameBytes(), entry.getFlags(), entry.getMethod(), entry.getCrc(), entry.getCompressedSize(), entry.getSize(), offset));
+
+        long position = dataOffset;
+        long remaining = entry.getCompressedSize();
+        while (remaining > 0) {
+            long transferred = source.transferTo(position, remaining, channel);
+            if (transferred <= 0) {
+                throw new EOFException("Unexpected end of data of " + entry.getName());
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+        offset += entry.getCompressedSize();
+    }
+
+    /**
+     * Add an entry whose data was already compressed
+     * @param name              The path of the entry
+     * @param method            The compression method, {@link java.util.zip.ZipEntry#STORED} or {@link java.util.zip.ZipEntry#DEFLATED}
+     * @param crc               The CRC-32 of the uncompressed data
+     * @param size              The size of the uncompressed data
+     * @param data              The compressed data
+     * @param compressedSize    The length of the compressed data in the array
+     * @throws IOException When the entry could not be written
+     */
+    public void add(String name, int method, long crc, long size, byte[] data, int compressedSize) throws IOException {
+        byte[] nameBytes = name.getBytes(Charsets.UTF_8);
+        int flags = nameBytes.length != name.length() ? ZipIndex.FLAG_UTF8 : 0;
+        writeLocalHeader(new Written(nameBytes, flags, method, crc, compressedSize, size, offset));
+        write(ByteBuffer.wrap(data, 0, compressedSize));
+    }
+
+    private void writeLocalHeader(Written w) throws IOException {
+        if (written.size() == 0xFFFF || offset + w.compressedSize > 0xFFFFFFFFL) {
+            throw new ZipException("Pack is too large, ZIP64 files are not supported!");
+        }
+        ByteBuffer header = ByteBuffer.allocate(ZipIndex.LOCAL_HEADER_SIZE + w.nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(ZipIndex.LOCAL_HEADER_SIGNATURE)
+                .putShort((short) VERSION)
+                .putShort((short) w.flags)
+                .putShort((short) w.method)
+                .putShort((short) DOS_TIME)
+                .putShort((short) DOS_DATE)
+                .putInt((int) w.crc)
+                .putInt((int) w.compressedSize)
+                .putInt((int) w.size)
+                .putShort((short) w.nameBytes.length)
+                .putShort((short) 0)
+                .put(w.nameBytes);
+        header.flip();
+        write(header);
+        written.add(w);
+    }
+
+    /**
+     * Write the central directory, no entries can be added after this
+     * @throws IOException When the file could not be written
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        long directoryOffset = offset;
+        for (Written w : written) {
+            ByteBuffer header = ByteBuffer.allocate(ZipIndex.CENTRAL_HEADER_SIZE + w.nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(ZipIndex.CENTRAL_HEADER_SIGNATURE)
+                    .putShort((short) VERSION)
+                    .putShort((short) VERSION)
+                    .putShort((short) w.flags)
+                    .putShort((short) w.method)
+                    .putShort((short) DOS_TIME)
+                    .putShort((short) DOS_DATE)
+                    .putInt((int) w.crc)
+                    .putInt((int) w.compressedSize)
+                    .putInt((int) w.size)
+                    .putShort((short) w.nameBytes.length)
+                    .putShort((short) 0) // extra length
+                    .putShort((short) 0) // comment length
+                    .putShort((short) 0) // disk number
+                    .putShort((short) 0) // internal attributes
+                    .putInt(0) // external attributes
+                    .putInt((int) w.offset)
+                    .put(w.nameBytes);
+            header.flip();
+            write(header);
+        }
+        long directorySize = offset - directoryOffset;
+        if (offset > 0xFFFFFFFFL) {
+            throw new ZipException("Pack is too large, ZIP64 files are not supported!");
+        }
+        ByteBuffer end = ByteBuffer.allocate(ZipIndex.END_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(ZipIndex.END_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) written.size())
+                .putShort((short) written.size())
+                .putInt((int) directorySize)
+                .putInt((int) directoryOffset)
+                .putShort((short) 0);
+        end.flip();
+        write(end);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static class Written {
+        private final byte[] nameBytes;
+        private final int flags;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+
+        private Written(byte[] nameBytes, int flags, int method, long crc, long compressedSize, long size, long offset) {
+            this.nameBytes = nameBytes;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+}
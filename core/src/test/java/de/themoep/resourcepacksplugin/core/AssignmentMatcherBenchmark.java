@@ -0,0 +1,99 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the combined regex of the {@link AssignmentMatcher} with checking every regex one by one.
+ * Run it with <tt>mvn test-compile</tt> and <tt>java -cp &lt;test classpath&gt; org.openjdk.jmh.Main AssignmentMatcherBenchmark</tt>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssignmentMatcherBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int patterns;
+
+    private List<PackAssignment> assignments;
+    private AssignmentMatcher matcher;
+    private String[] names;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        assignments = new ArrayList<>();
+        for (int i = 0; i < patterns; i++) {
+            PackAssignment assignment = new PackAssignment("minigame" + i);
+            assignment.setRegex(Pattern.compile("minigame" + i + "-\\d+"));
+            assignments.add(assignment);
+        }
+        matcher = new AssignmentMatcher(assignments);
+        if (!matcher.isCombined()) {
+            throw new IllegalStateException("Benchmark patterns were not combined!");
+        }
+        // Names matching the first, middle and last pattern as well as one that matches none
+        names = new String[]{
+                "minigame0-1",
+                "minigame" + (patterns / 2) + "-12",
+                "minigame" + (patterns - 1) + "-123",
+                "lobby-1"
+        };
+    }
+
+    private String nextName() {
+        next = (next + 1) % names.length;
+        return names[next];
+    }
+
+    @Benchmark
+    public PackAssignment combined() {
+        return matcher.match(nextName());
+    }
+
+    @Benchmark
+    public PackAssignment linear() {
+        String name = nextName();
+        for (PackAssignment assignment : assignments) {
+            if (assignment.getRegex().matcher(name).matches()) {
+                return assignment;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AssignmentMatcherTest {
+
+    @Test
+    public void firstMatchWins() {
+        AssignmentMatcher matcher = new AssignmentMatcher(assignments("lobby-\\d+", "(lobby)-(\\d)", "game-.*", ".*"));
+        assertTrue(matcher.isCombined());
+        assertEquals("0", matcher.match("lobby-1").getName());
+        assertEquals("2", matcher.match("game-a").getName());
+        assertEquals("3", matcher.match("hub").getName());
+    }
+
+    @Test
+    public void noMatch() {
+        AssignmentMatcher matcher = new AssignmentMatcher(assignments("lobby-\\d+", "game-.*"));
+        assertNull(matcher.match("hub"));
+        assertNull(matcher.match("lobby-1a"));
+    }
+
+    @Test
+    public void inlineFlagsStayInTheirGroup() {
+        AssignmentMatcher matcher = new AssignmentMatcher(assignments("(?i)lobby", "game"));
+        assertTrue(matcher.isCombined());
+        assertEquals("0", matcher.match("LOBBY").getName());
+        assertNull(matcher.match("GAME"));
+    }
+
+    @Test
+    public void fallsBackForBackReferences() {
+        AssignmentMatcher matcher = new AssignmentMatcher(assignments("(a)\\1", "(b)\\1"));
+        assertFalse(matcher.isCombined());
+        assertEquals("1", matcher.match("bb").getName());
+        assertNull(matcher.match("ab"));
+    }
+
+    @Test
+    public void fallsBackForDuplicateGroupNames() {
+        AssignmentMatcher matcher = new AssignmentMatcher(assignments("(?<id>lobby)", "(?<id>game)"));
+        assertFalse(matcher.isCombined());
+        assertEquals("1", matcher.match("game").getName());
+    }
+
+    private static List<PackAssignment> assignments(String... regexes) {
+        List<PackAssignment> assignments = new ArrayList<>();
+        for (int i = 0; i < regexes.length; i++) {
+            PackAssignment assignment = new PackAssignment(String.valueOf(i));
+            assignment.setRegex(Pattern.compile(regexes[i]));
+            assignments.add(assignment);
+        }
+        return assignments;
+    }
+}
@@ -0,0 +1,134 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LogStoredPackStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ResourcepacksPlugin plugin = TestPlugin.create();
+
+    @Test
+    public void roundTrip() throws IOException {
+        File file = new File(folder.getRoot(), "players.db");
+        List<UUID> players = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            players.add(UUID.randomUUID());
+        }
+        Map<UUID, String> expected = new HashMap<>();
+        Random random = new Random(616);
+
+        LogStoredPackStore store = new LogStoredPackStore(plugin, file);
+        for (int i = 0; i < 10000; i++) {
+            UUID playerId = players.get(random.nextInt(players.size()));
+            String pack = random.nextInt(4) == 0 ? null : "pack" + random.nextInt(50);
+            store.set(playerId, pack);
+            if (pack != null) {
+                expected.put(playerId, pack);
+            } else {
+                expected.remove(playerId);
+            }
+        }
+        assertContent(store, players, expected);
+        store.save();
+        assertContent(store, players, expected);
+        store.close();
+
+        store = new LogStoredPackStore(plugin, file);
+        assertContent(store, players, expected);
+        store.close();
+    }
+
+    @Test
+    public void truncatesIncompleteRecord() throws IOException {
+        File file = new File(folder.getRoot(), "players.db");
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        LogStoredPackStore store = new LogStoredPackStore(plugin, file);
+        store.set(first, "first");
+        store.close();
+        long complete = file.length();
+
+        store = new LogStoredPackStore(plugin, file);
+        store.set(second, "second");
+        store.close();
+
+        // Cut off the end of the second record like a crash during the write would
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        store = new LogStoredPackStore(plugin, file);
+        assertEquals("first", store.get(first));
+        assertNull(store.get(second));
+        assertEquals(complete, file.length());
+        store.close();
+    }
+
+    @Test
+    public void truncatesTrailingGarbage() throws IOException {
+        File file = new File(folder.getRoot(), "players.db");
+        UUID playerId = UUID.randomUUID();
+
+        LogStoredPackStore store = new LogStoredPackStore(plugin, file);
+        store.set(playerId, "pack");
+        store.close();
+        long complete = file.length();
+
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[7]);
+        }
+
+        store = new LogStoredPackStore(plugin, file);
+        assertEquals("pack", store.get(playerId));
+        assertEquals(complete, file.length());
+        store.set(playerId, "other");
+        store.close();
+
+        store = new LogStoredPackStore(plugin, file);
+        assertEquals("other", store.get(playerId));
+        store.close();
+    }
+
+    private static void assertContent(LogStoredPackStore store, List<UUID> players, Map<UUID, String> expected) {
+        for (UUID playerId : players) {
+            assertEquals(expected.get(playerId), store.get(playerId));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PackFormatTest {
+
+    private final PackManager packManager = new PackManager(TestPlugin.create());
+
+    @Test
+    public void unknownVersion() {
+        assertEquals(-1, packManager.getPackFormat(-1));
+    }
+
+    @Test
+    public void belowAllVersions() {
+        assertEquals(0, packManager.getPackFormat(0));
+        assertEquals(0, packManager.getPackFormat(46));
+    }
+
+    @Test
+    public void firstVersionOfFormat() {
+        assertEquals(1, packManager.getPackFormat(47));
+        assertEquals(2, packManager.getPackFormat(49));
+        assertEquals(3, packManager.getPackFormat(210));
+        assertEquals(4, packManager.getPackFormat(348));
+    }
+
+    @Test
+    public void betweenVersions() {
+        assertEquals(1, packManager.getPackFormat(48));
+        assertEquals(2, packManager.getPackFormat(110));
+        assertEquals(3, packManager.getPackFormat(340));
+    }
+
+    @Test
+    public void newerThanAllVersions() {
+        assertEquals(4, packManager.getPackFormat(Integer.MAX_VALUE));
+    }
+}
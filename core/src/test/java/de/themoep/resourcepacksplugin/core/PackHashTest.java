@@ -0,0 +1,54 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PackHashTest {
+
+    @Test
+    public void hexRoundTrip() {
+        String hex = "00ff10a9c3e4b5d6f7081920a1b2c3d4e5f60718";
+        PackHash hash = PackHash.fromHex(hex);
+        assertEquals(hex, hash.toString());
+        assertEquals(hash, PackHash.fromHex(hex.toUpperCase()));
+        assertEquals(hash.hashCode(), PackHash.fromHex(hex.toUpperCase()).hashCode());
+        assertTrue(hash.equals(PackHash.of(hash.getBytes()).getBytes()));
+    }
+
+    @Test
+    public void copiesBytes() {
+        byte[] bytes = {1, 2, 3};
+        PackHash hash = PackHash.of(bytes);
+        bytes[0] = 4;
+        assertArrayEquals(new byte[]{1, 2, 3}, hash.getBytes());
+    }
+
+    @Test
+    public void invalidHex() {
+        assertNull(PackHash.fromHex(null));
+        assertNull(PackHash.fromHex("abc"));
+        assertNull(PackHash.fromHex("zz"));
+    }
+}
@@ -0,0 +1,116 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PackManagerHashCacheTest {
+
+    private static final String URL = "https://example.com/packs/lobby.zip";
+    private static final String CACHED = "1111111111111111111111111111111111111111";
+    private static final String CONFIG = "2222222222222222222222222222222222222222";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheFile;
+    private PackManager packManager;
+
+    @Before
+    public void setup() throws IOException {
+        cacheFile = new File(folder.getRoot(), "hash-cache.txt");
+        Files.write(cacheFile.toPath(), Arrays.asList(
+                "# url\tetag\tlast-modified\tsize\tsha1",
+                URL + "\t\"etag\"\t\t1024\t" + CACHED
+        ), StandardCharsets.UTF_8);
+        packManager = new PackManager(TestPlugin.create(folder.getRoot()));
+        packManager.init();
+    }
+
+    @Test
+    public void loadsCachedHash() {
+        ResourcePack pack = new ResourcePack("lobby", URL, "");
+        packManager.addPack(pack);
+        assertEquals(1, packManager.loadHashCache());
+        assertEquals(CACHED, pack.getHash());
+        assertEquals("\"etag\"", pack.getEtag());
+        assertEquals(pack, packManager.getByHash(CACHED));
+    }
+
+    @Test
+    public void keepsExplicitHash() throws IOException {
+        ResourcePack pack = new ResourcePack("lobby", URL, CONFIG);
+        packManager.addPack(pack);
+        assertEquals(0, packManager.loadHashCache());
+        assertEquals(CONFIG, pack.getHash());
+        assertFalse(cacheContains(URL));
+    }
+
+    @Test
+    public void keepsSameExplicitHash() throws IOException {
+        ResourcePack pack = new ResourcePack("lobby", URL, CACHED);
+        packManager.addPack(pack);
+        assertEquals(1, packManager.loadHashCache());
+        assertEquals(CACHED, pack.getHash());
+        assertTrue(cacheContains(URL));
+    }
+
+    @Test
+    public void setHashDropsCachedHash() throws IOException {
+        ResourcePack pack = new ResourcePack("lobby", URL, "");
+        packManager.addPack(pack);
+        packManager.loadHashCache();
+        assertTrue(packManager.setPackHash(pack, CONFIG));
+        assertFalse(cacheContains(URL));
+
+        packManager.loadHashCache();
+        assertEquals(CONFIG, pack.getHash());
+    }
+
+    @Test
+    public void setUrlDropsCachedHash() throws IOException {
+        ResourcePack pack = new ResourcePack("lobby", URL, "");
+        packManager.addPack(pack);
+        packManager.loadHashCache();
+        assertTrue(packManager.setPackUrl(pack, "https://example.com/packs/other.zip"));
+        assertFalse(cacheContains(URL));
+    }
+
+    private boolean cacheContains(String url) throws IOException {
+        for (String line : Files.readAllLines(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith(url + "\t")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
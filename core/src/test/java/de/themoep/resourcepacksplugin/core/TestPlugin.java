@@ -0,0 +1,72 @@
+package de.themoep.resourcepacksplugin.core;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.logging.Logger;
+
+/**
+ * A plugin for the tests that only provides a name and a logger
+ */
+public class TestPlugin {
+
+    private TestPlugin() {}
+
+    /**
+     * Create a plugin for a test. Methods besides getName and getLogger return <tt>null</tt> or the primitive default.
+     * @return The plugin
+     */
+    public static ResourcepacksPlugin create() {
+        return create(null);
+    }
+
+    /**
+     * Create a plugin for a test that has a data folder. Tasks get run directly on the calling thread.
+     * Other methods besides getName and getLogger return <tt>null</tt> or the primitive default.
+     * @param dataFolder    The data folder of the plugin
+     * @return The plugin
+     */
+    public static ResourcepacksPlugin create(File dataFolder) {
+        Logger logger = Logger.getLogger("ResourcepacksTest");
+        return (ResourcepacksPlugin) Proxy.newProxyInstance(TestPlugin.class.getClassLoader(), new Class[]{ResourcepacksPlugin.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return "ResourcepacksTest";
+                case "getLogger":
+                    return logger;
+                case "getDataFolder":
+                    return dataFolder;
+                case "runTask":
+                case "runAsyncTask":
+                    ((Runnable) args[0]).run();
+                    return 0;
+            }
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            }
+            return null;
+        });
+    }
+}
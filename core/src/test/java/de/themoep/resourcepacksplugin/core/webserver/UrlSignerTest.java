@@ -0,0 +1,99 @@
+package de.themoep.resourcepacksplugin.core.webserver;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UrlSignerTest {
+
+    private static final String URL = "http://localhost:8080/packs/test.zip";
+    private static final byte[] HASH = new byte[20];
+    private static final byte[] OTHER_HASH = new byte[20];
+
+    static {
+        for (int i = 0; i < HASH.length; i++) {
+            HASH[i] = (byte) i;
+            OTHER_HASH[i] = (byte) (i + 1);
+        }
+    }
+
+    @Test
+    public void signAndVerify() {
+        UrlSigner signer = new UrlSigner("secret", 60);
+        String signed = signer.sign(URL, UUID.randomUUID(), HASH);
+        assertTrue(signer.verify(query(signed), HASH));
+    }
+
+    @Test
+    public void keepsExistingQuery() {
+        UrlSigner signer = new UrlSigner("secret", 60);
+        String signed = signer.sign(URL + "?v=1", UUID.randomUUID(), HASH);
+        assertTrue(signed.startsWith(URL + "?v=1&"));
+        assertTrue(signer.verify(query(signed), HASH));
+    }
+
+    @Test
+    public void rejectsOtherPack() {
+        UrlSigner signer = new UrlSigner("secret", 60);
+        String signed = signer.sign(URL, UUID.randomUUID(), HASH);
+        assertFalse(signer.verify(query(signed), OTHER_HASH));
+    }
+
+    @Test
+    public void rejectsOtherSecret() {
+        String signed = new UrlSigner("secret", 60).sign(URL, UUID.randomUUID(), HASH);
+        assertFalse(new UrlSigner("other", 60).verify(query(signed), HASH));
+        assertFalse(new UrlSigner("", 60).verify(query(signed), HASH));
+    }
+
+    @Test
+    public void rejectsTamperedToken() {
+        UrlSigner signer = new UrlSigner("secret", 60);
+        String query = query(signer.sign(URL, UUID.randomUUID(), HASH));
+        String otherPlayer = query.replaceFirst("p=.", "p=" + (query.charAt(query.indexOf("p=") + 2) == '0' ? '1' : '0'));
+        assertFalse(signer.verify(otherPlayer, HASH));
+        String longerExpiry = query.replaceFirst("e=(\\d+)", "e=9$1");
+        assertFalse(signer.verify(longerExpiry, HASH));
+        assertFalse(signer.verify(query.substring(0, query.length() - 1), HASH));
+    }
+
+    @Test
+    public void rejectsExpired() {
+        UrlSigner signer = new UrlSigner("secret", -1);
+        String signed = signer.sign(URL, UUID.randomUUID(), HASH);
+        assertFalse(signer.verify(query(signed), HASH));
+    }
+
+    @Test
+    public void rejectsMissingToken() {
+        UrlSigner signer = new UrlSigner("secret", 60);
+        assertFalse(signer.verify(null, HASH));
+        assertFalse(signer.verify("", HASH));
+        assertFalse(signer.verify("p=&e=&s=", HASH));
+    }
+
+    private static String query(String url) {
+        return url.substring(url.indexOf('?') + 1);
+    }
+}
@@ -0,0 +1,156 @@
+package de.themoep.resourcepacksplugin.core.zip;
+
+/*
+ * ResourcepacksPlugins - core
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ZipIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] MCMETA = "{\"pack\":{\"pack_format\":4,\"description\":\"Test\"}}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TEXTURE = new byte[4096];
+
+    static {
+        for (int i = 0; i < TEXTURE.length; i++) {
+            TEXTURE[i] = (byte) (i % 7);
+        }
+    }
+
+    @Test
+    public void readsEntries() throws IOException {
+        File source = createZip();
+        ZipIndex index = ZipIndex.read(source);
+        assertEquals(3, index.getEntries().size());
+
+        ZipIndex.Entry texture = index.get("assets/minecraft/textures/block/stone.png");
+        assertNotNull(texture);
+        assertEquals(ZipEntry.DEFLATED, texture.getMethod());
+        assertEquals(TEXTURE.length, texture.getSize());
+        assertEquals(crc(TEXTURE), texture.getCrc());
+
+        ZipIndex.Entry mcmeta = index.get("pack.mcmeta");
+        assertNotNull(mcmeta);
+        assertEquals(ZipEntry.STORED, mcmeta.getMethod());
+        assertEquals(MCMETA.length, mcmeta.getCompressedSize());
+
+        assertNotNull(index.get("assets/minecraft/lang/\u00e4.json"));
+        assertNull(index.get("missing"));
+    }
+
+    @Test
+    public void copiesRawEntries() throws IOException {
+        File source = createZip();
+        ZipIndex index = ZipIndex.read(source);
+        File target = folder.newFile("copy.zip");
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             ZipWriter writer = new ZipWriter(target)) {
+            for (ZipIndex.Entry entry : index.getEntries()) {
+                writer.copy(entry, channel);
+            }
+            writer.finish();
+        }
+
+        ZipIndex copyIndex = ZipIndex.read(target);
+        for (ZipIndex.Entry entry : index.getEntries()) {
+            ZipIndex.Entry copied = copyIndex.get(entry.getName());
+            assertNotNull(copied);
+            assertEquals(entry.getMethod(), copied.getMethod());
+            assertEquals(entry.getCrc(), copied.getCrc());
+            assertEquals(entry.getCompressedSize(), copied.getCompressedSize());
+            assertEquals(entry.getSize(), copied.getSize());
+        }
+
+        // The copy needs to be readable by the JDK's zip implementation
+        try (ZipFile sourceZip = new ZipFile(source); ZipFile copyZip = new ZipFile(target)) {
+            assertEquals(sourceZip.size(), copyZip.size());
+            for (Enumeration<? extends ZipEntry> e = sourceZip.entries(); e.hasMoreElements();) {
+                ZipEntry entry = e.nextElement();
+                ZipEntry copied = copyZip.getEntry(entry.getName());
+                assertNotNull(entry.getName(), copied);
+                assertArrayEquals(entry.getName(), readAll(sourceZip, entry), readAll(copyZip, copied));
+            }
+        }
+    }
+
+    private File createZip() throws IOException {
+        File file = folder.newFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            ZipEntry mcmeta = new ZipEntry("pack.mcmeta");
+            mcmeta.setMethod(ZipEntry.STORED);
+            mcmeta.setSize(MCMETA.length);
+            mcmeta.setCompressedSize(MCMETA.length);
+            mcmeta.setCrc(crc(MCMETA));
+            out.putNextEntry(mcmeta);
+            out.write(MCMETA);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("assets/minecraft/textures/block/stone.png"));
+            out.write(TEXTURE);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("assets/minecraft/lang/\u00e4.json"));
+            out.write("{}".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return file;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] readAll(ZipFile zip, ZipEntry entry) throws IOException {
+        byte[] data = new byte[(int) entry.getSize()];
+        try (InputStream in = zip.getInputStream(entry)) {
+            int read = 0;
+            while (read < data.length) {
+                int r = in.read(data, read, data.length - read);
+                if (r == -1) {
+                    break;
+                }
+                read += r;
+            }
+        }
+        return data;
+    }
+}